@@ -0,0 +1,324 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class Arpeggiator {
+    public final static int UP = 0,
+        DOWN = 1,
+        UP_DOWN = 2;
+
+    private final int MAX_NOTES = 128;
+
+    private MidiManager midiMan;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> stepper;
+
+    private int[] held;
+    private int heldCount;
+    private boolean[] keySounding;
+    private int[] chord;
+    private int[] notes;
+    private int[] sounding;
+    private int soundingCount;
+
+    private int pattern;
+    private double stepsPerSecond;
+    private int step;
+
+    /**
+     * Creates an Arpeggiator that sits between the keyboard's keys and the MidiManager. With nothing set
+     * up, each key just plays its own pitch. A remembered chord makes each key play that chord built on
+     * its pitch, and when running, the held notes are instead played one at a time in a repeating
+     * pattern on a scheduler thread
+     *
+     * @param midiMan the MidiManager that will be used to play sounds
+     */
+    public Arpeggiator(MidiManager midiMan) {
+        this.midiMan = midiMan;
+        held = new int[MAX_NOTES];
+        heldCount = 0;
+        keySounding = new boolean[MAX_NOTES];
+        chord = new int[] { 0 };
+        notes = new int[MAX_NOTES];
+        sounding = new int[MAX_NOTES];
+        soundingCount = 0;
+        pattern = UP;
+        stepsPerSecond = 8;
+        step = 0;
+    }
+
+    /*
+     * Key handling
+     */
+
+    /**
+     * Handles a key being pressed
+     *
+     * @param pitch int representing the midi note value
+     * @param tick  the tick in the recording
+     */
+    public synchronized void press(int pitch, int tick) {
+        for (int i = 0; i < heldCount; i++) {
+            if (held[i] == pitch) {
+                return;
+            }
+        }
+        // keep the held keys in ascending order, so the patterns can walk straight through them
+        int index = heldCount;
+        while (index > 0 && held[index - 1] > pitch) {
+            held[index] = held[index - 1];
+            index--;
+        }
+        held[index] = pitch;
+        heldCount++;
+
+        if (!isRunning()) {
+            if (chord.length == 1) {
+                midiMan.playPitch(pitch, tick);
+            } else {
+                midiMan.playPitches(notes, buildChord(pitch, notes), tick);
+            }
+            keySounding[pitch] = true;
+        }
+    }
+
+    /**
+     * Handles a key being released
+     *
+     * @param pitch int representing the midi note value
+     * @param tick  the tick in the recording
+     */
+    public synchronized void release(int pitch, int tick) {
+        int index = -1;
+        for (int i = 0; i < heldCount; i++) {
+            if (held[i] == pitch) {
+                index = i;
+            }
+        }
+        if (index < 0) {
+            return;
+        }
+        for (int i = index; i < heldCount - 1; i++) {
+            held[i] = held[i + 1];
+        }
+        heldCount--;
+
+        if (keySounding[pitch]) {
+            stopKey(pitch, tick);
+        }
+        if (isRunning() && heldCount == 0) {
+            silence(tick);
+        }
+    }
+
+    /*
+     * Chord memory
+     */
+
+    /**
+     * Remembers the keys currently held as a chord, relative to the lowest of them. Does nothing unless
+     * at least two keys are held. The held keys stop sounding, since they were playing the old chord
+     *
+     * @return whether a chord was remembered
+     */
+    public synchronized boolean learnChord() {
+        if (heldCount < 2) {
+            return false;
+        }
+        stopHeld();
+        int[] intervals = new int[heldCount];
+        for (int i = 0; i < heldCount; i++) {
+            intervals[i] = held[i] - held[0];
+        }
+        chord = intervals;
+        return true;
+    }
+
+    /**
+     * Forgets the remembered chord, so each key plays only its own pitch again. The held keys stop
+     * sounding, since they were playing the old chord
+     */
+    public synchronized void clearChord() {
+        stopHeld();
+        chord = new int[] { 0 };
+    }
+
+    /**
+     * @return whether a chord is remembered
+     */
+    public synchronized boolean hasChord() {
+        return chord.length > 1;
+    }
+
+    /*
+     * Arpeggio
+     */
+
+    /**
+     * Starts playing the held keys as an arpeggio
+     */
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        stopHeld();
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "arpeggiator");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MAX_PRIORITY);
+                return thread;
+            });
+        }
+        step = 0;
+        schedule();
+    }
+
+    /**
+     * Stops the arpeggio and silences the note it was playing
+     */
+    public synchronized void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        stepper.cancel(false);
+        stepper = null;
+        silence(midiMan.getCurrentTick());
+    }
+
+    /**
+     * @return whether the arpeggio is running
+     */
+    public synchronized boolean isRunning() {
+        return stepper != null;
+    }
+
+    /**
+     * Sets the order the held notes are played in
+     *
+     * @param pattern the pattern, such as Arpeggiator.UP
+     */
+    public synchronized void setPattern(int pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * @return the order the held notes are played in, such as Arpeggiator.UP
+     */
+    public synchronized int getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Sets how many notes the arpeggio plays per second, restarting it if it is running
+     *
+     * @param stepsPerSecond the rate of the arpeggio
+     */
+    public synchronized void setRate(double stepsPerSecond) {
+        this.stepsPerSecond = stepsPerSecond;
+        if (isRunning()) {
+            stepper.cancel(false);
+            schedule();
+        }
+    }
+
+    /**
+     * @return how many notes the arpeggio plays per second
+     */
+    public synchronized double getRate() {
+        return stepsPerSecond;
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Schedules the steps of the arpeggio at the current rate. The rate is fixed, so a late step is
+     * followed by the next one sooner instead of the whole arpeggio drifting behind
+     */
+    private void schedule() {
+        long period = (long) (1e9 / stepsPerSecond);
+        stepper = scheduler.scheduleAtFixedRate(this::step, 0, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Plays the next step of the arpeggio, which is every note of the remembered chord built on the next
+     * held key in the pattern
+     */
+    private synchronized void step() {
+        if (stepper == null) {
+            return;
+        }
+        int tick = midiMan.getCurrentTick();
+        silence(tick);
+        if (heldCount == 0) {
+            return;
+        }
+        int cycle = pattern == UP_DOWN && heldCount > 1 ? 2 * heldCount - 2 : heldCount;
+        int position = step % cycle;
+        int index;
+        if (pattern == DOWN) {
+            index = heldCount - 1 - position;
+        } else if (position < heldCount) {
+            index = position;
+        } else {
+            index = cycle - position;
+        }
+        step++;
+
+        soundingCount = buildChord(held[index], sounding);
+        midiMan.playPitches(sounding, soundingCount, tick);
+    }
+
+    /**
+     * Stops the notes of the current arpeggio step
+     */
+    private void silence(int tick) {
+        if (soundingCount > 0) {
+            midiMan.stopPitches(sounding, soundingCount, tick);
+            soundingCount = 0;
+        }
+    }
+
+    /**
+     * Stops the notes the held keys are playing directly, for when the arpeggio or a new chord takes over
+     * from them. The keys stay held, but releasing them won't stop anything
+     */
+    private void stopHeld() {
+        int tick = midiMan.getCurrentTick();
+        for (int i = 0; i < heldCount; i++) {
+            if (keySounding[held[i]]) {
+                stopKey(held[i], tick);
+            }
+        }
+    }
+
+    /**
+     * Stops the notes a key is playing directly, which are its pitch or the remembered chord built on it
+     */
+    private void stopKey(int pitch, int tick) {
+        if (chord.length == 1) {
+            midiMan.stopPitch(pitch, tick);
+        } else {
+            midiMan.stopPitches(notes, buildChord(pitch, notes), tick);
+        }
+        keySounding[pitch] = false;
+    }
+
+    /**
+     * Writes the notes of the remembered chord built on a root into an array, leaving out notes above
+     * the MIDI range, and returns how many were written
+     */
+    private int buildChord(int root, int[] out) {
+        int count = 0;
+        for (int interval : chord) {
+            if (root + interval <= 127) {
+                out[count++] = root + interval;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,81 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sound.sampled.AudioFormat;
+
+public enum AudioProfile {
+    LOW_LATENCY(44100, 20, 32),
+    BALANCED(44100, 60, 64),
+    SAFE(32000, 150, 64);
+
+    private final float sampleRate;
+    private final int latencyMillis;
+    private final int maxPolyphony;
+
+    /**
+     * Creates an output profile for the software synthesizer
+     *
+     * @param sampleRate    the sample rate of the output line in Hz
+     * @param latencyMillis the length of the output buffer in milliseconds
+     * @param maxPolyphony  the maximum number of voices the synthesizer will play at once
+     */
+    AudioProfile(float sampleRate, int latencyMillis, int maxPolyphony) {
+        this.sampleRate = sampleRate;
+        this.latencyMillis = latencyMillis;
+        this.maxPolyphony = maxPolyphony;
+    }
+
+    /**
+     * Gets the 16 bit stereo format that the output line is opened with
+     *
+     * @return the audio format of this profile
+     */
+    public AudioFormat getFormat() {
+        return new AudioFormat(sampleRate, 16, 2, true, false);
+    }
+
+    /**
+     * Gets the size of the output line's buffer in bytes
+     *
+     * @return the buffer size of this profile
+     */
+    public int getBufferSize() {
+        AudioFormat format = getFormat();
+        return format.getFrameSize() * (int) (format.getFrameRate() * latencyMillis / 1000);
+    }
+
+    /**
+     * Gets the requested latency of the output buffer
+     *
+     * @return the latency of this profile in milliseconds
+     */
+    public int getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * Gets the open-time settings understood by the JDK software synthesizer
+     *
+     * @return a map of synthesizer property names to values
+     */
+    public Map<String, Object> getInfoMap() {
+        Map<String, Object> info = new HashMap<>();
+        info.put("format", getFormat());
+        info.put("latency", latencyMillis * 1000L); // the synthesizer takes microseconds
+        info.put("max polyphony", maxPolyphony);
+        return info;
+    }
+
+    /**
+     * Gets the profile to back off to when this one can't keep the output buffer filled
+     *
+     * @return the next safer profile, or null if this is already the safest
+     */
+    public AudioProfile getFallback() {
+        if (ordinal() + 1 < values().length) {
+            return values()[ordinal() + 1];
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,211 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events for the operations of the MidiManager. Note and instrument events happen
+ * on every key press, so they are recorded without stack traces; they have no threshold of their own,
+ * so every one can be lined up with an audio glitch, and simplekeyboard.jfc or any other settings file
+ * can filter them. The rarer operations keep their stack traces. Notes from the keyboard, external
+ * inputs and the other instance of a jam are all recorded, told apart by their source, but the
+ * controller and pitch bend messages external inputs also send are not, since they don't change what
+ * is playing the way notes and instruments do. All events are only filled in once shouldCommit() says
+ * the recording wants them
+ */
+public final class EngineEvents {
+
+    private EngineEvents() {
+    }
+
+    @Name("simplekeyboard.NoteOn")
+    @Label("Note On")
+    @Category({ "Simple Keyboard", "Notes" })
+    @Description("A note started playing on the synthesizer")
+    @StackTrace(false)
+    @Threshold("0 ms")
+    public static class NoteOn extends Event {
+        @Label("Track")
+        int track;
+
+        @Label("Channel")
+        int channel;
+
+        @Label("Pitch")
+        int pitch;
+
+        @Label("Recorded")
+        boolean recorded;
+
+        @Label("Source")
+        @Description("Where the note came from: keyboard, external or jam")
+        String source;
+    }
+
+    @Name("simplekeyboard.NoteOff")
+    @Label("Note Off")
+    @Category({ "Simple Keyboard", "Notes" })
+    @Description("A note stopped playing on the synthesizer")
+    @StackTrace(false)
+    @Threshold("0 ms")
+    public static class NoteOff extends Event {
+        @Label("Track")
+        int track;
+
+        @Label("Channel")
+        int channel;
+
+        @Label("Pitch")
+        int pitch;
+
+        @Label("Recorded")
+        boolean recorded;
+
+        @Label("Source")
+        @Description("Where the note came from: keyboard, external or jam")
+        String source;
+    }
+
+    @Name("simplekeyboard.InstrumentChange")
+    @Label("Instrument Change")
+    @Category({ "Simple Keyboard", "Notes" })
+    @Description("The instrument of the active track was changed")
+    @StackTrace(false)
+    @Threshold("0 ms")
+    public static class InstrumentChange extends Event {
+        @Label("Track")
+        int track;
+
+        @Label("Channel")
+        int channel;
+
+        @Label("Instrument")
+        int instrument;
+    }
+
+    @Name("simplekeyboard.NoteBatch")
+    @Label("Note Batch")
+    @Category({ "Simple Keyboard", "Notes" })
+    @Description("A chord or arpeggio step started or stopped several notes with one time stamp")
+    @StackTrace(false)
+    @Threshold("0 ms")
+    public static class NoteBatch extends Event {
+        @Label("Track")
+        int track;
+
+        @Label("Channel")
+        int channel;
+
+        @Label("Note On")
+        @Description("Whether the notes were started rather than stopped")
+        boolean noteOn;
+
+        @Label("Note Count")
+        int noteCount;
+
+        @Label("Recorded")
+        boolean recorded;
+    }
+
+    @Name("simplekeyboard.StartRecording")
+    @Label("Start Recording")
+    @Category({ "Simple Keyboard", "Recording" })
+    @Description("Recording started on the active track")
+    public static class StartRecording extends Event {
+        @Label("Track")
+        int track;
+
+        @Label("Event Count")
+        @Description("Events in the whole sequence when recording started")
+        int eventCount;
+    }
+
+    @Name("simplekeyboard.StopRecording")
+    @Label("Stop Recording")
+    @Category({ "Simple Keyboard", "Recording" })
+    @Description("Recording stopped on the active track")
+    public static class StopRecording extends Event {
+        @Label("Track")
+        int track;
+
+        @Label("Event Count")
+        @Description("Events recorded onto the track")
+        int eventCount;
+    }
+
+    @Name("simplekeyboard.ClearTrack")
+    @Label("Clear Track")
+    @Category({ "Simple Keyboard", "Recording" })
+    @Description("A track was deleted and recreated empty")
+    public static class ClearTrack extends Event {
+        @Label("Track")
+        int track;
+
+        @Label("Event Count")
+        @Description("Events that were in the track before it was cleared")
+        int eventCount;
+    }
+
+    @Name("simplekeyboard.PlaySequence")
+    @Label("Play Sequence")
+    @Category({ "Simple Keyboard", "Playback" })
+    @Description("The sequence was handed to the sequencer and started")
+    public static class PlaySequence extends Event {
+        @Label("Event Count")
+        int eventCount;
+
+        @Label("Reloaded")
+        @Description("Whether the sequencer had to be given the sequence again")
+        boolean reloaded;
+    }
+
+    @Name("simplekeyboard.SaveRecording")
+    @Label("Save Recording")
+    @Category({ "Simple Keyboard", "Playback" })
+    @Description("The sequence was written to a MIDI file")
+    public static class SaveRecording extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Event Count")
+        int eventCount;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    @Name("simplekeyboard.SaveProject")
+    @Label("Save Project")
+    @Category({ "Simple Keyboard", "Playback" })
+    @Description("Every track was written to a project file")
+    public static class SaveProject extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Event Count")
+        int eventCount;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    @Name("simplekeyboard.OpenProject")
+    @Label("Open Project")
+    @Category({ "Simple Keyboard", "Playback" })
+    @Description("A project file was opened, decoding only its active track")
+    public static class OpenProject extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Track Count")
+        @Description("Tracks that have events, most of them left to be decoded when first used")
+        int trackCount;
+    }
+
+}
@@ -0,0 +1,47 @@
+import java.util.SplittableRandom;
+
+public class HumanizeTransform implements MidiTransform {
+    private int maxTicks;
+    private int maxVelocity;
+    private long seed;
+    private SplittableRandom random;
+    private long[] shifts;
+
+    /**
+     * Transform that nudges the timing and velocity of every note by a random amount. The randomness is
+     * seeded, so transforming the same events again gives the same result
+     *
+     * @param maxTicks    the most a note's start can move either way, in ticks
+     * @param maxVelocity the most a note's velocity can change either way
+     * @param seed        the seed of the random nudges
+     */
+    public HumanizeTransform(int maxTicks, int maxVelocity, long seed) {
+        this.maxTicks = maxTicks;
+        this.maxVelocity = maxVelocity;
+        this.seed = seed;
+        random = new SplittableRandom(seed);
+        shifts = new long[128];
+    }
+
+    @Override
+    public long apply(long event) {
+        long tick = MidiTransform.tickOf(event);
+        if (MidiTransform.isNoteOn(event)) {
+            long shift = Math.max(random.nextInt(-maxTicks, maxTicks + 1), -tick);
+            int velocity = MidiTransform.data2Of(event) + random.nextInt(-maxVelocity, maxVelocity + 1);
+            shifts[MidiTransform.data1Of(event)] = shift;
+            event = MidiTransform.withData2(event, Math.max(1, Math.min(127, velocity)));
+            return MidiTransform.withTick(event, tick + shift);
+        }
+        if (MidiTransform.isNoteOff(event)) {
+            return MidiTransform.withTick(event, tick + shifts[MidiTransform.data1Of(event)]);
+        }
+        return event;
+    }
+
+    @Override
+    public MidiTransform forTrack(int track) {
+        return new HumanizeTransform(maxTicks, maxVelocity, seed * 31 + track);
+    }
+
+}
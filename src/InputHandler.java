@@ -0,0 +1,407 @@
+import java.util.List;
+
+import edu.macalester.graphics.events.Key;
+
+public class InputHandler {
+    public final static int PLAY = 0,
+        PAUSE = 1,
+        RECORD = 2,
+        STOP = 3,
+        BEGINNING = 4,
+        ARP = 5,
+        CHORD = 6,
+        ARP_PATTERN = 7,
+        ARP_RATE = 8;
+    public final static int QUANTIZE = 0,
+        OCTAVE_UP = 1,
+        OCTAVE_DOWN = 2,
+        HUMANIZE = 3,
+        SOFTEN = 4,
+        UNDO_TRANSFORMS = 5,
+        LIVE_QUANTIZE = 6,
+        LIVE_OFF = 7;
+    private final static int QUANTIZE_GRID = 15; // a quarter of a second
+    private final static long HUMANIZE_SEED = 128;
+    private final static double[] ARP_RATES = { 4, 8, 12, 16 }; // steps per second
+
+    private MidiManager midiMan;
+    private KeyboardManager keyboard;
+    private KeyboardLink keyboardLink;
+    private InputLog log;
+    private int octave;
+
+    /**
+     * Creates an InputHandler that turns key presses, mouse presses and button clicks into actions on
+     * the keyboard and the MidiManager. It doesn't need a canvas, so recorded input can be replayed
+     * through it headless
+     *
+     * @param midiMan      the MidiManager that will be used to play sounds
+     * @param keyboard     the keyboard whose keys are played
+     * @param keyboardLink the map from typing keys to keyboard keys
+     */
+    public InputHandler(MidiManager midiMan, KeyboardManager keyboard, KeyboardLink keyboardLink) {
+        this.midiMan = midiMan;
+        this.keyboard = keyboard;
+        this.keyboardLink = keyboardLink;
+        log = null;
+        octave = 0;
+    }
+
+    /**
+     * Sets the log that every handled input event is written to
+     *
+     * @param log the input log, or null to stop logging
+     */
+    public void setLog(InputLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Handles a typing key being pressed: the arrow keys change octave, and the mapped keys play notes.
+     * The log records the new octave or the pitch of the played key rather than the typing key, so it
+     * doesn't depend on how the graphics library numbers its keys
+     *
+     * @param pressedKey the typing key that was pressed
+     * @param tick       the current recording tick
+     */
+    public void keyDown(Key pressedKey, int tick) {
+        if (pressedKey.equals(Key.UP_ARROW)) {
+            setOctave(octave + 1, tick);
+        }
+        if (pressedKey.equals(Key.DOWN_ARROW)) {
+            setOctave(octave - 1, tick);
+        }
+        if (KeyboardLink.KEY_LIST.contains(pressedKey)) {
+            PlayableKey key = keyboardLink.getKeyMap().get(pressedKey);
+            if (key != null) {
+                playKey(key, tick);
+            }
+        }
+    }
+
+    /**
+     * Handles a typing key being released, stopping the note it was playing
+     *
+     * @param pressedKey the typing key that was released
+     * @param tick       the current recording tick
+     */
+    public void keyUp(Key pressedKey, int tick) {
+        if (KeyboardLink.KEY_LIST.contains(pressedKey)) {
+            PlayableKey key = keyboardLink.getKeyMap().get(pressedKey);
+            if (key != null) {
+                stopKey(key, tick);
+            }
+        }
+    }
+
+    /**
+     * Handles the mouse being pressed on a keyboard key
+     *
+     * @param keyIndex the index of the key in the keyboard's list of keys
+     * @param tick     the current recording tick
+     */
+    public void mouseDown(int keyIndex, int tick) {
+        logEvent(InputLog.MOUSE_DOWN, keyIndex, tick);
+        keyboard.getKeys().get(keyIndex).play(tick);
+    }
+
+    /**
+     * Handles the mouse being released on a keyboard key
+     *
+     * @param keyIndex the index of the key in the keyboard's list of keys
+     * @param tick     the current recording tick
+     */
+    public void mouseUp(int keyIndex, int tick) {
+        logEvent(InputLog.MOUSE_UP, keyIndex, tick);
+        keyboard.getKeys().get(keyIndex).stop(tick);
+    }
+
+    /**
+     * Handles one of the playback or arpeggiator buttons being clicked
+     *
+     * @param button the button, such as InputHandler.PLAY
+     * @param tick   the current recording tick
+     */
+    public void click(int button, int tick) {
+        logEvent(InputLog.CLICK, button, tick);
+        switch (button) {
+            case PLAY:
+                midiMan.playSequence();
+                break;
+            case PAUSE:
+                midiMan.pauseSequence();
+                break;
+            case RECORD:
+                midiMan.clearTrack(midiMan.getActiveTrack());
+                midiMan.startRecording();
+                break;
+            case STOP:
+                midiMan.stopRecording();
+                break;
+            case BEGINNING:
+                midiMan.setToStart();
+                break;
+            case ARP:
+                if (midiMan.getArpeggiator().isRunning()) {
+                    midiMan.getArpeggiator().stop();
+                } else {
+                    midiMan.getArpeggiator().start();
+                }
+                break;
+            case CHORD:
+                // remembers the held keys as a chord, or forgets the chord when no chord is held
+                if (!midiMan.getArpeggiator().learnChord()) {
+                    midiMan.getArpeggiator().clearChord();
+                }
+                break;
+            case ARP_PATTERN:
+                midiMan.getArpeggiator().setPattern((midiMan.getArpeggiator().getPattern() + 1) % 3);
+                break;
+            case ARP_RATE:
+                midiMan.getArpeggiator().setRate(nextRate(midiMan.getArpeggiator().getRate()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown button " + button);
+        }
+    }
+
+    /**
+     * Handles an instrument being picked from the instrument menu
+     *
+     * @param instrument int representing the instrument in general MIDI
+     * @param tick       the current recording tick
+     */
+    public void selectInstrument(int instrument, int tick) {
+        logEvent(InputLog.INSTRUMENT, instrument, tick);
+        midiMan.selectInstrument(instrument, tick);
+    }
+
+    /**
+     * Handles a track's select button being clicked
+     *
+     * @param track the index of the track
+     * @param tick  the current recording tick
+     */
+    public void selectTrack(int track, int tick) {
+        logEvent(InputLog.TRACK, track, tick);
+        midiMan.setActiveTrack(track);
+    }
+
+    /**
+     * Handles a track's mute button being clicked
+     *
+     * @param track the index of the track
+     * @param mute  whether the track should be silent
+     * @param tick  the current recording tick
+     */
+    public void setMute(int track, boolean mute, int tick) {
+        logEvent(InputLog.MUTE, mixerArg(track, mute ? 1 : 0), tick);
+        midiMan.setTrackMute(track, mute);
+    }
+
+    /**
+     * Handles a track's solo button being clicked
+     *
+     * @param track the index of the track
+     * @param solo  whether the track should be soloed
+     * @param tick  the current recording tick
+     */
+    public void setSolo(int track, boolean solo, int tick) {
+        logEvent(InputLog.SOLO, mixerArg(track, solo ? 1 : 0), tick);
+        midiMan.setTrackSolo(track, solo);
+    }
+
+    /**
+     * Handles a track's volume button being clicked
+     *
+     * @param track  the index of the track
+     * @param volume the new channel volume, from 0 to 127
+     * @param tick   the current recording tick
+     */
+    public void setVolume(int track, int volume, int tick) {
+        logEvent(InputLog.VOLUME, mixerArg(track, volume), tick);
+        midiMan.setTrackVolume(track, volume);
+    }
+
+    /**
+     * Handles a track's pan button being clicked
+     *
+     * @param track the index of the track
+     * @param pan   0 for fully left, 64 for the center, or 127 for fully right
+     * @param tick  the current recording tick
+     */
+    public void setPan(int track, int pan, int tick) {
+        logEvent(InputLog.PAN, mixerArg(track, pan), tick);
+        midiMan.setTrackPan(track, pan);
+    }
+
+    /**
+     * Handles a transform being picked from the transform menu. The whole-recording transforms rebuild
+     * every track from what was played on it, so picking one replaces whichever was picked before; the
+     * live ones change how notes are shaped from now on
+     *
+     * @param preset the transform, such as InputHandler.QUANTIZE
+     * @param tick   the current recording tick
+     */
+    public void transform(int preset, int tick) {
+        logEvent(InputLog.TRANSFORM, preset, tick);
+        switch (preset) {
+            case UNDO_TRANSFORMS:
+                midiMan.undoTransforms();
+                break;
+            case LIVE_QUANTIZE:
+                midiMan.setLiveTransforms(new TransformChain(new QuantizeTransform(QUANTIZE_GRID)));
+                break;
+            case LIVE_OFF:
+                midiMan.setLiveTransforms(TransformChain.EMPTY);
+                break;
+            default:
+                midiMan.applyTransforms(presetChain(preset));
+        }
+    }
+
+    /**
+     * Feeds one event read back from an input log to the handler it was recorded from
+     *
+     * @param type the kind of event, such as InputLog.KEY_DOWN
+     * @param arg  the pitch, key, octave, button, instrument, track or transform the event is about, or for
+     *             the mixer the track in the high byte and the new value in the low byte
+     * @param tick the recording tick when the event happened
+     */
+    public void replay(int type, int arg, int tick) {
+        switch (type) {
+            case InputLog.KEY_DOWN:
+                playKey(keyWithPitch(arg), tick);
+                break;
+            case InputLog.KEY_UP:
+                stopKey(keyWithPitch(arg), tick);
+                break;
+            case InputLog.OCTAVE:
+                setOctave(arg, tick);
+                break;
+            case InputLog.MOUSE_DOWN:
+                mouseDown(arg, tick);
+                break;
+            case InputLog.MOUSE_UP:
+                mouseUp(arg, tick);
+                break;
+            case InputLog.CLICK:
+                click(arg, tick);
+                break;
+            case InputLog.INSTRUMENT:
+                selectInstrument(arg, tick);
+                break;
+            case InputLog.TRACK:
+                selectTrack(arg, tick);
+                break;
+            case InputLog.TRANSFORM:
+                transform(arg, tick);
+                break;
+            case InputLog.MUTE:
+                setMute(arg >> 8, (arg & 0xFF) != 0, tick);
+                break;
+            case InputLog.SOLO:
+                setSolo(arg >> 8, (arg & 0xFF) != 0, tick);
+                break;
+            case InputLog.VOLUME:
+                setVolume(arg >> 8, arg & 0xFF, tick);
+                break;
+            case InputLog.PAN:
+                setPan(arg >> 8, arg & 0xFF, tick);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown input event type " + type);
+        }
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Moves the typing keys to another octave of the keyboard
+     */
+    private void setOctave(int octave, int tick) {
+        logEvent(InputLog.OCTAVE, octave, tick);
+        this.octave = octave;
+        keyboard.clearKeyText();
+        keyboardLink.makeKeyMap(keyboard.getKeys(), octave);
+    }
+
+    /**
+     * Plays a keyboard key for a typing key that was pressed
+     */
+    private void playKey(PlayableKey key, int tick) {
+        logEvent(InputLog.KEY_DOWN, key.getPitch(), tick);
+        key.play(tick);
+    }
+
+    /**
+     * Stops a keyboard key for a typing key that was released
+     */
+    private void stopKey(PlayableKey key, int tick) {
+        logEvent(InputLog.KEY_UP, key.getPitch(), tick);
+        key.stop(tick);
+    }
+
+    /**
+     * Finds the keyboard key that plays a pitch
+     */
+    private PlayableKey keyWithPitch(int pitch) {
+        for (PlayableKey key : keyboard.getKeys()) {
+            if (key.getPitch() == pitch) {
+                return key;
+            }
+        }
+        throw new IllegalArgumentException("No key plays pitch " + pitch);
+    }
+
+    /**
+     * Builds the transforms of one of the whole-recording presets
+     */
+    private static TransformChain presetChain(int preset) {
+        switch (preset) {
+            case QUANTIZE:
+                return new TransformChain(new QuantizeTransform(QUANTIZE_GRID));
+            case OCTAVE_UP:
+                return new TransformChain(new TransposeTransform(12));
+            case OCTAVE_DOWN:
+                return new TransformChain(new TransposeTransform(-12));
+            case HUMANIZE:
+                return new TransformChain(new HumanizeTransform(2, 12, HUMANIZE_SEED));
+            case SOFTEN:
+                return new TransformChain(new VelocityCurveTransform(2, 1));
+            default:
+                throw new IllegalArgumentException("Unknown transform " + preset);
+        }
+    }
+
+    /**
+     * Finds the arpeggiator rate after the current one, going back to the slowest after the fastest
+     */
+    private static double nextRate(double current) {
+        for (int i = 0; i < ARP_RATES.length; i++) {
+            if (ARP_RATES[i] == current) {
+                return ARP_RATES[(i + 1) % ARP_RATES.length];
+            }
+        }
+        return ARP_RATES[0];
+    }
+
+    /**
+     * Packs a track and a mixer value into the arg of a log event
+     */
+    private static int mixerArg(int track, int value) {
+        return track << 8 | value;
+    }
+
+    /**
+     * Writes an event to the input log, if there is one
+     */
+    private void logEvent(int type, int arg, int tick) {
+        if (log != null) {
+            log.write(type, arg, tick);
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+public class InputLog {
+    public final static int KEY_DOWN = 1, // the arg of the key events is the pitch of the keyboard key played
+        KEY_UP = 2,
+        MOUSE_DOWN = 3,
+        MOUSE_UP = 4,
+        CLICK = 5,
+        INSTRUMENT = 6,
+        TRACK = 7,
+        TRANSFORM = 8,
+        MUTE = 9, // the arg of the mixer events is the track in the high byte and the new value in the low byte
+        SOLO = 10,
+        VOLUME = 11,
+        PAN = 12,
+        OCTAVE = 13; // the octave the typing keys were moved to
+
+    public final static int RECORD_SIZE = 15; // type byte, arg short, tick int, time long
+    private final static int MAGIC = 0x534B494C;
+    private final static int VERSION = 2;
+
+    private DataOutputStream out;
+    private long startTime;
+
+    /**
+     * Creates an InputLog that writes every input event passed to it to a compact binary file
+     *
+     * @param file the file to write the log to
+     * @throws IOException if the file can't be created
+     */
+    public InputLog(File file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Appends one input event to the log
+     *
+     * @param type the kind of event, such as InputLog.KEY_DOWN
+     * @param arg  the pitch, octave, button, instrument, track or transform the event is about
+     * @param tick the recording tick when the event happened
+     */
+    public synchronized void write(int type, int arg, int tick) {
+        try {
+            out.writeByte(type);
+            out.writeShort(arg);
+            out.writeInt(tick);
+            out.writeLong(System.nanoTime() - startTime);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Flushes and closes the log file
+     */
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads a log file, checking its header. The returned buffer is positioned at the first record, and
+     * each record is a type byte, an arg short, a tick int and a time long in nanoseconds since the log
+     * was started
+     *
+     * @param file the log file to read
+     * @return a buffer holding the records of the log
+     * @throws IOException if the file can't be read or isn't an input log
+     */
+    public static ByteBuffer load(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException(file + " is not an input log");
+        }
+        return buffer;
+    }
+
+}
@@ -0,0 +1,123 @@
+import java.io.File;
+import java.nio.ByteBuffer;
+
+public class InputReplay {
+    private MidiManager midiMan;
+    private InputHandler input;
+    private LatencyHistogram handlerTimes;
+
+    /**
+     * Creates an InputReplay that plays input logs back through a headless keyboard, using the same
+     * input handlers as the app
+     *
+     * @param midiMan the MidiManager that the replayed input plays on
+     */
+    public InputReplay(MidiManager midiMan) {
+        this.midiMan = midiMan;
+        KeyboardManager keyboard = new KeyboardManager(midiMan);
+        input = new InputHandler(midiMan, keyboard, new KeyboardLink(keyboard.getKeys()));
+        handlerTimes = new LatencyHistogram("handler");
+    }
+
+    /**
+     * Feeds every event in a log to the input handlers, and prints the throughput, the distribution of
+     * time spent handling each event, and the hash of the resulting sequence. The hash only repeats for
+     * logs that don't use the arpeggiator, which says so when they do
+     *
+     * @param records  the records of an input log, as returned by InputLog.load
+     * @param realTime whether to wait between events as long as the player did, instead of replaying as
+     *                 fast as possible
+     */
+    public void replay(ByteBuffer records, boolean realTime) {
+        handlerTimes.clear();
+        boolean arpeggiated = false;
+        int count = 0;
+        long lateness = 0;
+        long start = System.nanoTime();
+        while (records.remaining() >= InputLog.RECORD_SIZE) {
+            int type = records.get();
+            int arg = records.getShort();
+            int tick = records.getInt();
+            long time = records.getLong();
+            if (realTime) {
+                long wait = start + time - System.nanoTime();
+                if (wait > 0) {
+                    sleep(wait);
+                }
+                lateness = Math.max(lateness, System.nanoTime() - start - time);
+            }
+            long before = System.nanoTime();
+            input.replay(type, arg, tick);
+            handlerTimes.record(System.nanoTime() - before);
+            arpeggiated |= type == InputLog.CLICK && arg == InputHandler.ARP;
+            count++;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("replayed %d events in %.1f ms (%.0f events/s)%n", count, elapsed / 1e6,
+            count / (elapsed / 1e9));
+        System.out.printf("handler p50 %.1f us, p99 %.1f us, max %.1f us%n", handlerTimes.getPercentile(0.5) / 1e3,
+            handlerTimes.getPercentile(0.99) / 1e3, handlerTimes.getMax() / 1e3);
+        if (realTime) {
+            System.out.printf("worst lateness %.2f ms%n", lateness / 1e6);
+        }
+        System.out.printf("sequence hash %016x%n", midiMan.getSequenceHash());
+        if (arpeggiated) {
+            // the arpeggiator steps on the wall clock, not on the ticks in the log
+            System.out.println("the log turns the arpeggiator on, whose notes follow the clock rather than the log, "
+                + "so the hash can differ between replays");
+        }
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Sleeps for the given number of nanoseconds, ignoring interruptions
+     */
+    private static void sleep(long nanos) {
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Replays an input log recorded with --record-input. Pass --realtime to keep the original timing, and
+     * --journal with a file to measure the cost of journaling the recorded events
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: InputReplay <input log> [--realtime] [--journal <file>]");
+            return;
+        }
+        System.setProperty("java.awt.headless", "true");
+        boolean realTime = false;
+        File journal = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--realtime")) {
+                realTime = true;
+            }
+            if (args[i].equals("--journal") && i + 1 < args.length) {
+                journal = new File(args[i + 1]);
+            }
+        }
+        try {
+            ByteBuffer records = InputLog.load(new File(args[0]));
+            MidiManager midiMan = new MidiManager();
+            if (journal != null) {
+                journal.delete();
+                midiMan.openJournal(journal);
+            }
+            InputReplay replay = new InputReplay(midiMan);
+            replay.replay(records, realTime);
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+        System.exit(0);
+    }
+
+}
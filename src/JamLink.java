@@ -0,0 +1,372 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+public class JamLink implements Receiver {
+    public final static int PACKET_SIZE = 23; // magic, session, sequence number, send time, status, data1, data2
+
+    private final static int MAGIC = 0x534B4A4D;
+    private final static int WINDOW = 64;
+
+    private DatagramChannel channel;
+    private Receiver sink;
+    private ByteBuffer sendBuffer;
+    private int session;
+    private int nextSequence;
+    private Thread receiveThread;
+    private ScheduledExecutorService playout;
+    private volatile long jitterMicros;
+
+    private int peerSession;
+    private boolean synced;
+    private int highestSequence;
+    private long seenWindow;
+    private long minTransit;
+    private long received;
+    private long lost;
+    private long duplicates;
+    private long reordered;
+    private long late;
+    private long malformed;
+    private LatencyHistogram oneWay;
+
+    /**
+     * Opens a link that streams note and program events to another instance of the keyboard over UDP,
+     * and plays the events that instance streams back on the given receiver. Each event is sent as soon
+     * as it is played, in its own small datagram carrying a sequence number and the time it was sent, so
+     * the other side can drop duplicates, count lost packets and measure the one-way latency. One-way
+     * latency is only meaningful when both machines' clocks are in sync, such as over localhost
+     *
+     * @param localPort the UDP port to receive events on
+     * @param peer      the address and port of the other instance
+     * @param sink      the receiver that events from the other instance are played on
+     * @throws IOException if the port can't be opened
+     */
+    public JamLink(int localPort, InetSocketAddress peer, Receiver sink) throws IOException {
+        this.sink = sink;
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(localPort));
+        channel.connect(peer);
+        sendBuffer = ByteBuffer.allocateDirect(PACKET_SIZE);
+        session = ThreadLocalRandom.current().nextInt();
+        nextSequence = 0;
+        jitterMicros = 0;
+        oneWay = new LatencyHistogram("one-way");
+        clearStats();
+
+        playout = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jam-playout");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        });
+        receiveThread = new Thread(this::receiveLoop, "jam-receive");
+        receiveThread.setDaemon(true);
+        receiveThread.setPriority(Thread.MAX_PRIORITY);
+        receiveThread.start();
+    }
+
+    /**
+     * Sends a note or program event to the other instance. Other kinds of messages are ignored
+     *
+     * @param message   the message to send
+     * @param timeStamp ignored, since the event is sent straight away
+     */
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        if (!(message instanceof ShortMessage)) {
+            return;
+        }
+        ShortMessage msg = (ShortMessage) message;
+        int command = msg.getCommand();
+        if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF
+            && command != ShortMessage.PROGRAM_CHANGE) {
+            return;
+        }
+        synchronized (sendBuffer) {
+            sendBuffer.clear();
+            sendBuffer.putInt(MAGIC);
+            sendBuffer.putInt(session);
+            sendBuffer.putInt(nextSequence++);
+            sendBuffer.putLong(nowMicros());
+            sendBuffer.put((byte) msg.getStatus());
+            sendBuffer.put((byte) msg.getData1());
+            sendBuffer.put((byte) msg.getData2());
+            sendBuffer.flip();
+            try {
+                channel.write(sendBuffer);
+            } catch (IOException e) {
+                // the other instance isn't listening yet; the event is simply lost, as it would be on the network
+            }
+        }
+    }
+
+    /**
+     * Stops receiving and closes the link's port
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        playout.shutdownNow();
+    }
+
+    /**
+     * Sets how long received events are held back before they are played, so that events which took
+     * longer than usual to arrive are still played with the same spacing they were sent with. With no
+     * delay, events are played the moment they arrive, which is the lowest latency but passes on any
+     * network jitter
+     *
+     * @param millis the extra delay on top of the fastest transit time seen, in milliseconds
+     */
+    public void setJitterDelay(double millis) {
+        jitterMicros = (long) (millis * 1000);
+    }
+
+    /**
+     * @return the jitter buffer delay in milliseconds
+     */
+    public double getJitterDelay() {
+        return jitterMicros / 1000.0;
+    }
+
+    /**
+     * Describes the packets received so far and their one-way latency
+     *
+     * @return a one line report of the link's statistics
+     */
+    public synchronized String getReport() {
+        return String.format(
+            "jam: %d received, %d lost, %d duplicate, %d reordered, %d late, %d malformed; "
+                + "one-way p50 %.2f ms, p99 %.2f ms, max %.2f ms; jitter buffer %.1f ms",
+            received, lost, duplicates, reordered, late, malformed, oneWay.getPercentile(0.5) / 1e6,
+            oneWay.getPercentile(0.99) / 1e6, oneWay.getMax() / 1e6, getJitterDelay());
+    }
+
+    /**
+     * @return the number of packets whose events were played
+     */
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    /**
+     * @return the number of packets that never arrived, not counting ones that arrived late
+     */
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    /**
+     * @return the number of packets that were dropped as duplicates or as too old to tell
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return the number of packets that arrived after a later one
+     */
+    public synchronized long getReordered() {
+        return reordered;
+    }
+
+    /**
+     * Forgets every statistic gathered so far
+     */
+    public synchronized void clearStats() {
+        synced = false;
+        received = 0;
+        lost = 0;
+        duplicates = 0;
+        reordered = 0;
+        late = 0;
+        malformed = 0;
+        oneWay.clear();
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Receives datagrams until the link is closed
+     */
+    private void receiveLoop() {
+        ByteBuffer packet = ByteBuffer.allocateDirect(PACKET_SIZE + 1);
+        while (channel.isOpen()) {
+            packet.clear();
+            try {
+                channel.receive(packet);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                continue; // the other instance isn't listening, which some systems report on the next receive
+            }
+            packet.flip();
+            accept(packet, nowMicros());
+        }
+    }
+
+    /**
+     * Handles a datagram from the other instance: checks it, updates the statistics, and plays its event
+     * straight away or schedules it on the playout thread when there is a jitter buffer. The receive
+     * thread calls this for every datagram, and it is package-private so tests can feed it packets
+     * without a network
+     *
+     * @param packet  the datagram, positioned at its start
+     * @param arrival the wall clock time the datagram arrived, in microseconds
+     */
+    void accept(ByteBuffer packet, long arrival) {
+        if (packet.remaining() != PACKET_SIZE || packet.getInt() != MAGIC) {
+            countMalformed();
+            return;
+        }
+        int peer = packet.getInt();
+        int sequence = packet.getInt();
+        long sent = packet.getLong();
+        ShortMessage msg;
+        try {
+            msg = new ShortMessage(packet.get() & 0xFF, packet.get() & 0xFF, packet.get() & 0xFF);
+        } catch (Exception e) {
+            countMalformed();
+            return;
+        }
+
+        long delay = admit(peer, sequence, sent, arrival);
+        if (delay < 0) {
+            return;
+        }
+        if (delay == 0) {
+            sink.send(msg, -1);
+        } else {
+            playout.schedule(() -> sink.send(msg, -1), delay, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /**
+     * Updates the statistics for an arriving packet, and works out how long to hold it back for
+     *
+     * @return the delay before the packet's event is played in microseconds, or -1 if it is a duplicate
+     */
+    private synchronized long admit(int peer, int sequence, long sent, long arrival) {
+        if (!synced || peer != peerSession) {
+            // the other instance has just started, or restarted and begun counting again
+            synced = true;
+            peerSession = peer;
+            highestSequence = sequence - 1;
+            seenWindow = 0;
+            minTransit = Long.MAX_VALUE;
+        }
+
+        int ahead = sequence - highestSequence;
+        if (ahead > 0) {
+            lost += ahead - 1;
+            seenWindow = ahead >= WINDOW ? 0 : seenWindow << ahead;
+            seenWindow |= 1;
+            highestSequence = sequence;
+        } else if (-ahead < WINDOW) {
+            long bit = 1L << -ahead;
+            if ((seenWindow & bit) != 0) {
+                duplicates++;
+                return -1;
+            }
+            // a packet that was counted as lost has turned up after a later one
+            seenWindow |= bit;
+            lost--;
+            reordered++;
+        } else {
+            duplicates++; // too old to tell, so treat it as one rather than risk replaying a note
+            return -1;
+        }
+
+        received++;
+        long transit = arrival - sent;
+        oneWay.record(transit * 1000);
+        minTransit = Math.min(minTransit, transit);
+
+        long jitter = jitterMicros;
+        if (jitter == 0) {
+            return 0;
+        }
+        // play every event a fixed time after the fastest transit seen, so the spacing between events is kept
+        long playAt = sent + minTransit + jitter;
+        if (playAt <= arrival) {
+            late++;
+            return 0;
+        }
+        return playAt - arrival;
+    }
+
+    /**
+     * Counts a datagram that isn't a jam packet
+     */
+    private synchronized void countMalformed() {
+        malformed++;
+    }
+
+    /**
+     * Gets the wall clock time in microseconds, which unlike System.nanoTime can be compared between
+     * processes
+     */
+    private static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1000000 + now.getNano() / 1000;
+    }
+
+    /**
+     * Streams notes from one link to another over localhost and prints the other link's statistics.
+     * Takes the number of notes to send, the rate to send them at per second, and optionally a jitter
+     * buffer delay in milliseconds
+     */
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 1000;
+        double jitter = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+
+        Receiver discard = new Receiver() {
+            @Override
+            public void send(MidiMessage message, long timeStamp) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        int portA = 47001;
+        int portB = 47002;
+        JamLink sender = new JamLink(portA, new InetSocketAddress("localhost", portB), discard);
+        JamLink receiver = new JamLink(portB, new InetSocketAddress("localhost", portA), discard);
+        receiver.setJitterDelay(jitter);
+
+        long period = (long) (1e9 / rate);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long wait = start + i * period - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            }
+            int command = i % 2 == 0 ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF;
+            sender.send(new ShortMessage(command, 0, 60 + (i / 2) % 12, command == ShortMessage.NOTE_ON ? 64 : 0), -1);
+        }
+        Thread.sleep(200 + (long) jitter);
+        System.out.println(receiver.getReport());
+        sender.close();
+        receiver.close();
+    }
+
+}
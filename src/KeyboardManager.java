@@ -2,6 +2,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import edu.macalester.graphics.*;
 
 
@@ -15,6 +16,8 @@ public class KeyboardManager {
     List<PlayableKey> keys;
     CanvasWindow canvas;
     MidiManager midiMan;
+    AtomicIntegerArray externalNotes;
+    volatile boolean highlightsChanged;
 
     /**
      * Create a keyboard manager object 
@@ -28,10 +31,21 @@ public class KeyboardManager {
         whiteKeys = new ArrayDeque<>();
         blackKeys = new ArrayDeque<>();
         keys = new ArrayList<PlayableKey>();
+        externalNotes = new AtomicIntegerArray(128);
+        highlightsChanged = false;
         createKeyboard(N_OCTAVES);
 
     }
 
+    /**
+     * Create a keyboard manager object whose keys aren't drawn on any canvas, for playing input back
+     * without a window
+     * @param midiMan the MidiManager that will be used to play sounds
+     */
+    public KeyboardManager(MidiManager midiMan) {
+        this(null, midiMan);
+    }
+
     // ----------- Setting Up Keyboard -----------------------------------------
     /**
      * Creates the white keys and adds them to the canvas
@@ -44,7 +58,8 @@ public class KeyboardManager {
             for (int i = 0; i < 7; i++) {
                 WhiteKey whiteKey = new WhiteKey(posX, 100, midiMan);
                 whiteKeys.add(whiteKey);
-                canvas.add(whiteKey);
+                if (canvas != null)
+                    canvas.add(whiteKey);
                 posX += H_SPACING;
             }
         }
@@ -61,14 +76,16 @@ public class KeyboardManager {
             for (int i = 0; i < 2; i++) {
                 BlackKey blackKey = new BlackKey(posX, 100, midiMan);
                 blackKeys.add(blackKey);
-                canvas.add(blackKey);
+                if (canvas != null)
+                    canvas.add(blackKey);
                 posX += H_SPACING;
             }
             posX += H_SPACING;
             for (int i = 0; i < 3; i++) {
                 BlackKey blackKey = new BlackKey(posX, 100, midiMan);
                 blackKeys.add(blackKey);
-                canvas.add(blackKey);
+                if (canvas != null)
+                    canvas.add(blackKey);
                 posX += H_SPACING;
             }
             posX += H_SPACING;
@@ -124,6 +141,32 @@ public class KeyboardManager {
         }
     }
 
+    /**
+     * Notes that a pitch started or stopped playing from an external input. Safe to call from any
+     * thread; the keys are only redrawn by refreshHighlights
+     * 
+     * @param pitch int representing the midi note value
+     * @param on    whether the note started or stopped
+     */
+    public void noteChanged(int pitch, boolean on) {
+        externalNotes.set(pitch, on ? 1 : 0);
+        highlightsChanged = true;
+    }
+
+    /**
+     * Highlights the keys whose pitches are playing from an external input, if any have changed. Meant
+     * to be called on every frame from the UI thread
+     */
+    public void refreshHighlights() {
+        if (!highlightsChanged) {
+            return;
+        }
+        highlightsChanged = false;
+        for (int i = 0; i < keys.size(); i++) {
+            keys.get(i).setHighlighted(externalNotes.get(LOWEST_NOTE + i) != 0);
+        }
+    }
+
     /**
      * Gets the list of keys on the keyboard
      * 
@@ -0,0 +1,130 @@
+public class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int NUM_BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+    private final String name;
+    private final long[] counts;
+    private long total;
+    private long max;
+
+    /**
+     * Creates an empty histogram of durations in nanoseconds. Durations under 16 ns each get their own
+     * bucket, and above that every power of two is split into 8 buckets, so any recorded value is within
+     * about 12% of its bucket's bounds. Recording and reading are synchronized, so a stage can be
+     * recorded on one thread while the overlay reads it on another
+     *
+     * @param name the name of the stage this histogram measures
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+        counts = new long[NUM_BUCKETS];
+        total = 0;
+        max = 0;
+    }
+
+    /**
+     * Records one duration, without allocating
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        counts[bucketOf(nanos)]++;
+        total++;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    /**
+     * Gets the duration that the given fraction of recorded values are at or below, rounded up to the
+     * top of the bucket it falls in
+     *
+     * @param fraction the percentile as a fraction between 0 and 1
+     * @return the percentile in nanoseconds, or 0 if nothing has been recorded
+     */
+    public synchronized long getPercentile(double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(target, 1)) {
+                return i == NUM_BUCKETS - 1 ? max : Math.min(upperBoundOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the longest duration recorded, in nanoseconds
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public synchronized long getCount() {
+        return total;
+    }
+
+    /**
+     * @return the name of the stage this histogram measures
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Empties the histogram
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = 0;
+        }
+        total = 0;
+        max = 0;
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Finds the bucket a duration falls in
+     */
+    private static int bucketOf(long nanos) {
+        if (nanos < LINEAR_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return NUM_BUCKETS - 1;
+        }
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Finds the largest duration that falls in a bucket
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+
+}
@@ -0,0 +1,39 @@
+import java.awt.Color;
+import edu.macalester.graphics.*;
+
+public class LatencyOverlay extends GraphicsGroup {
+    private static final double COLUMN_WIDTH = 450;
+    private static final double ROW_HEIGHT = 16;
+    private static final int COLUMNS = 2;
+
+    private LatencyStats stats;
+    private GraphicsText[] lines;
+
+    /**
+     * Debug overlay that shows the percentiles of every latency stage, two stages per row
+     *
+     * @param stats the latency stats to display
+     * @param posX  X position of the overlay
+     * @param posY  Y position of the first row of the overlay
+     */
+    public LatencyOverlay(LatencyStats stats, double posX, double posY) {
+        this.stats = stats;
+        lines = new GraphicsText[stats.getNumStages()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = new GraphicsText("", posX + (i % COLUMNS) * COLUMN_WIDTH, posY + (i / COLUMNS) * ROW_HEIGHT);
+            lines[i].setFontSize(12);
+            lines[i].setFillColor(Color.decode("#555555"));
+            this.add(lines[i]);
+        }
+    }
+
+    /**
+     * Refreshes the text of every stage from the latest histograms
+     */
+    public void update() {
+        for (int i = 0; i < lines.length; i++) {
+            lines[i].setText(stats.describe(i));
+        }
+    }
+
+}
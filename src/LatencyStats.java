@@ -0,0 +1,143 @@
+import java.io.File;
+import java.io.PrintWriter;
+
+public class LatencyStats {
+    public final static int INPUT = 0,
+        DISPATCH = 1,
+        OUTPUT = 2,
+        TOTAL = 3,
+        EXTERNAL = 4;
+
+    private final String[] STAGE_NAMES = { "input", "dispatch", "output", "total", "external" };
+
+    private LatencyHistogram[] stages;
+    private long inputTime;
+    private long keyTime;
+    private Thread keyThread;
+
+    /**
+     * Creates a set of histograms for the stages a note goes through between a key being pressed and
+     * its sound leaving the synthesizer:
+     * input is from the UI event arriving to the key being played,
+     * dispatch is from the key being played to the message being handed to the synthesizer,
+     * output is the audio already queued in the synthesizer's output buffer ahead of the note,
+     * and total is the sum of the three.
+     * External is the equivalent of total for notes from an external MIDI input, from the message
+     * reaching the app to its sound leaving the synthesizer.
+     * The marks are made from the UI thread and the arpeggiator's thread and the histograms are read
+     * from the UI thread, so the marks and every histogram are synchronized. A note is only measured
+     * when it is sent from the thread that marked its key, so the arpeggiator's steps don't finish the
+     * measurement of a key they didn't play
+     */
+    public LatencyStats() {
+        stages = new LatencyHistogram[STAGE_NAMES.length];
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            stages[i] = new LatencyHistogram(STAGE_NAMES[i]);
+        }
+        inputTime = 0;
+        keyTime = 0;
+        keyThread = null;
+    }
+
+    /**
+     * Marks the moment a mouse or keyboard event reaches the app
+     */
+    public synchronized void markInput() {
+        inputTime = System.nanoTime();
+    }
+
+    /**
+     * Marks the moment a key starts playing its note
+     */
+    public synchronized void markKey() {
+        keyTime = System.nanoTime();
+        keyThread = Thread.currentThread();
+        if (inputTime != 0) {
+            stages[INPUT].record(keyTime - inputTime);
+        }
+    }
+
+    /**
+     * Marks the moment a note has been handed to the synthesizer, and finishes the measurement. Does
+     * nothing unless it is called from the thread that marked the key
+     *
+     * @param outputDelay the audio queued ahead of the note in the output buffer, in nanoseconds
+     */
+    public synchronized void markSent(long outputDelay) {
+        if (Thread.currentThread() != keyThread) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (keyTime != 0) {
+            stages[DISPATCH].record(now - keyTime);
+        }
+        stages[OUTPUT].record(outputDelay);
+        if (inputTime != 0) {
+            stages[TOTAL].record(now - inputTime + outputDelay);
+        }
+        inputTime = 0;
+        keyTime = 0;
+        keyThread = null;
+    }
+
+    /**
+     * Records a note from an external MIDI input that has just been handed to the synthesizer. It
+     * shares none of the marks of the other stages, so it doesn't need to wait for them
+     *
+     * @param receivedTime the System.nanoTime when the message reached the app
+     * @param outputDelay  the audio queued ahead of the note in the output buffer, in nanoseconds
+     */
+    public void recordExternal(long receivedTime, long outputDelay) {
+        stages[EXTERNAL].record(System.nanoTime() - receivedTime + outputDelay);
+    }
+
+    /**
+     * Gets the histogram for one stage
+     *
+     * @param stage the index of the stage, such as LatencyStats.INPUT
+     * @return the stage's histogram
+     */
+    public LatencyHistogram getStage(int stage) {
+        return stages[stage];
+    }
+
+    /**
+     * @return the number of stages that are measured
+     */
+    public int getNumStages() {
+        return stages.length;
+    }
+
+    /**
+     * Describes one stage's percentiles in milliseconds
+     *
+     * @param stage the index of the stage
+     * @return a short summary of the stage
+     */
+    public String describe(int stage) {
+        LatencyHistogram histogram = stages[stage];
+        return String.format("%s: p50 %.2f  p99 %.2f  max %.2f ms (%d)", histogram.getName(),
+            histogram.getPercentile(0.5) / 1e6, histogram.getPercentile(0.99) / 1e6, histogram.getMax() / 1e6,
+            histogram.getCount());
+    }
+
+    /**
+     * Writes the count, p50, p99 and max of every stage to a CSV file, in microseconds
+     *
+     * @param file the file to write to
+     */
+    public void writeCsv(File file) {
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println("stage,count,p50_us,p99_us,max_us");
+            for (LatencyHistogram histogram : stages) {
+                out.printf("%s,%d,%.1f,%.1f,%.1f%n", histogram.getName(), histogram.getCount(),
+                    histogram.getPercentile(0.5) / 1e3, histogram.getPercentile(0.99) / 1e3,
+                    histogram.getMax() / 1e3);
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -1,6 +1,27 @@
 import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntSupplier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.sound.midi.*;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
 
 public class MidiManager {
     public final static int PIANO = 0,
@@ -10,6 +31,35 @@ public class MidiManager {
 
     private final int NUM_TRACKS = 4;
     private final int VELOCITY = 64;
+    private final int MAX_BATCH = 128;
+    private final int UNDERRUN_LIMIT = 3;
+    private final long UNDERRUN_WINDOW_MS = 10_000; // scattered underruns further apart than this don't add up
+    private final int WATCHDOG_PERIOD_MS = 5;
+    private final int STEM_DRIFT_LIMIT_MS = 20;
+    private final int JAM_CHANNEL = NUM_TRACKS; // the first channel no track uses
+    private final int ALL_NOTES_OFF = 123;
+    private final int VOLUME_CONTROLLER = 7;
+    private final int PAN_CONTROLLER = 10;
+    private final long STEM_MEMORY_BUDGET = 64L << 20;
+    private final long STEM_SPILL_BUDGET = 512L << 20;
+    public final static int DEFAULT_VOLUME = 100,
+        CENTER_PAN = 64;
+
+    /**
+     * Is told about notes played from an external MIDI input, so the keys on screen can follow them
+     */
+    public interface NoteListener {
+        /**
+         * Called on the MIDI input's thread whenever a note from an external input starts or stops, so it
+         * should only note the change and leave drawing to the UI thread
+         *
+         * @param pitch int representing the midi note value
+         * @param on    whether the note started or stopped
+         */
+        void noteChanged(int pitch, boolean on);
+    }
+
+    private final Object noteLock = new Object(); // guards the note path, see the constructor
 
     private boolean isRecording;
 
@@ -21,35 +71,120 @@ public class MidiManager {
     private Sequence sequence;
 
     private Transmitter seqTransmitter;
-    private Receiver synthReceiver;
+    private volatile Receiver synthReceiver;
 
     private Track[] tracks;
     private int[] trackInstruments;
+    private TrackCache trackCache;
+    private PackedTrack[] rawTracks;
+    private NoteIndex[] noteIndexes;
+    private TransformChain[] liveTransforms;
+    private int[] liveNotes;
+
+    private Arpeggiator arpeggiator;
+    private IntSupplier tickSource;
+    private ShortMessage[] batchMessages;
+    private long[] batchTicks;
+    private long[] batchRaw;
+
+    private AudioProfile audioProfile;
+    private volatile SourceDataLine outputLine;
+    private AtomicInteger underruns;
+    private AtomicLongArray underrunTimes;
+    private ScheduledExecutorService audioWatchdog;
+
+    private LatencyStats latencyStats;
+    private RecordingJournal journal;
+
+    private ProjectFile project;
+    private boolean[] pendingTracks;
+
+    private boolean[] trackMuted;
+    private boolean[] trackSoloed;
+    private int[] trackVolumes;
+    private int[] trackPans;
+    private Track[] loadedTracks;
+
+    private StemCache stemCache;
+    private volatile StemRenderer stemRenderer;
+    private StemPlayer stemPlayer;
+    private ExecutorService stemExecutor;
+    private Set<Long> stemsRendering;
+    private boolean[] stemmed;
+
+    private volatile JamLink jamLink;
+    private volatile int jamTrack;
+
+    private Receiver externalReceiver;
+    private List<Transmitter> inputs;
+    private List<MidiDevice> inputDevices;
+    private volatile NoteListener noteListener;
+
+    /**
+     * Creates a MidiManager object, by default not recording and with track 0 and channel 0 set to be
+     * active, using the balanced audio profile
+     */
+    public MidiManager() {
+        this(AudioProfile.BALANCED);
+    }
 
     /**
      * Creates a MidiManager object, by default not recording and with track 0 and channel 0 set to be
      * active
+     *
+     * @param profile the audio profile to open the synthesizer with
      */
+    public MidiManager(AudioProfile profile) {
+        this(null, null, profile);
+    }
 
-    public MidiManager() {
+    /**
+     * Creates a MidiManager object that plays on the given devices instead of the system's default ones,
+     * so it can run without an audio device, such as in tests with a synthesizer that only records what
+     * it is sent. Notes arrive from the UI, the arpeggiator, external inputs and the jam link on threads
+     * of their own. Playing and recording a note only takes a small note lock, which guards the tracks,
+     * the journal, the active track and the rest of what the note path touches. Every other public method
+     * that reads or changes the tracks, the mixer or the devices is synchronized on the MidiManager, and
+     * takes the note lock only to copy what it needs or to swap in its result, so saving, opening a
+     * project, transforming the tracks and reopening the synthesizer never hold up a note. The MidiManager
+     * is always locked before the note lock. What the note path only reads, such as the active track, is
+     * only changed holding both, so the MidiManager's own methods can read it without the note lock
+     *
+     * @param synth   the synthesizer to play notes on, or null for the system's default
+     * @param seq     the sequencer to play the tracks back with, or null for the system's default
+     * @param profile the audio profile to open the synthesizer with
+     */
+    public MidiManager(Synthesizer synth, Sequencer seq, AudioProfile profile) {
         isRecording = false;
         activeTrack = 0;
         activeChannel = 0;
+        latencyStats = new LatencyStats();
 
         try {
             // create midi devices and the sequence to be recorded to
-            synthesizer = MidiSystem.getSynthesizer();
-            sequencer = MidiSystem.getSequencer();
+            synthesizer = synth != null ? synth : MidiSystem.getSynthesizer();
+            sequencer = seq != null ? seq : MidiSystem.getSequencer();
             sequence = new Sequence(Sequence.SMPTE_30, 2, NUM_TRACKS); // Sets the recording to 30 frames per second,
                                                                        // and 2 ticks per frame, to line up with the
                                                                        // canvas.animate speed
             // open devices
-            synthesizer.open();
+            underruns = new AtomicInteger();
+            underrunTimes = new AtomicLongArray(UNDERRUN_LIMIT);
+            stemCache = new StemCache(STEM_MEMORY_BUDGET, null, 0);
+            stemsRendering = ConcurrentHashMap.newKeySet();
+            stemExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "stem-renderer");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY); // rendering ahead must never starve the live synthesizer
+                return thread;
+            });
+            openSynthesizer(profile);
             sequencer.open();
             // create receivers and transmitters, and attach things to each other
             synthReceiver = synthesizer.getReceiver();
             seqTransmitter = sequencer.getTransmitter();
             seqTransmitter.setReceiver(synthReceiver);
+            startAudioWatchdog();
             // initialize the array of tracks
             tracks = new Track[NUM_TRACKS];
             for (int i = 0; i < NUM_TRACKS; i++) {
@@ -60,6 +195,50 @@ public class MidiManager {
             for (int i = 0; i < NUM_TRACKS; i++) {
                 trackInstruments[i] = PIANO;
             }
+            trackCache = new TrackCache(NUM_TRACKS);
+            rawTracks = new PackedTrack[NUM_TRACKS];
+            noteIndexes = new NoteIndex[NUM_TRACKS];
+            liveTransforms = new TransformChain[NUM_TRACKS];
+            for (int i = 0; i < NUM_TRACKS; i++) {
+                rawTracks[i] = new PackedTrack();
+                noteIndexes[i] = new NoteIndex();
+                liveTransforms[i] = TransformChain.EMPTY;
+            }
+            liveNotes = new int[128];
+            for (int i = 0; i < 128; i++) {
+                liveNotes[i] = i;
+            }
+            batchMessages = new ShortMessage[MAX_BATCH];
+            batchTicks = new long[MAX_BATCH];
+            batchRaw = new long[MAX_BATCH];
+            tickSource = () -> 0;
+            arpeggiator = new Arpeggiator(this);
+            pendingTracks = new boolean[NUM_TRACKS];
+            trackMuted = new boolean[NUM_TRACKS];
+            trackSoloed = new boolean[NUM_TRACKS];
+            trackVolumes = new int[NUM_TRACKS];
+            trackPans = new int[NUM_TRACKS];
+            for (int i = 0; i < NUM_TRACKS; i++) {
+                trackVolumes[i] = DEFAULT_VOLUME;
+                trackPans[i] = CENTER_PAN;
+            }
+            loadedTracks = new Track[0];
+            stemmed = new boolean[NUM_TRACKS];
+            jamTrack = -1;
+            inputs = new ArrayList<>();
+            inputDevices = new ArrayList<>();
+            externalReceiver = new Receiver() {
+                @Override
+                public void send(MidiMessage message, long timeStamp) {
+                    if (message instanceof ShortMessage) {
+                        playExternal((ShortMessage) message, System.nanoTime());
+                    }
+                }
+
+                @Override
+                public void close() {
+                }
+            };
 
 
         } catch (Exception e) {
@@ -78,10 +257,27 @@ public class MidiManager {
      * 
      * @param track the index of the track to be cleared
      */
-    public void clearTrack(int track) {
-        sequence.deleteTrack(tracks[track]);
-        tracks[track] = sequence.createTrack();
-        selectInstrument(trackInstruments[activeTrack], 0);
+    public synchronized void clearTrack(int track) {
+        EngineEvents.ClearTrack event = new EngineEvents.ClearTrack();
+        event.begin();
+        pendingTracks[track] = false;
+        int eventCount;
+        int instrument;
+        synchronized (noteLock) {
+            eventCount = tracks[track].size();
+            resetTrack(track);
+            if (journal != null) {
+                journal.appendClear(track);
+            }
+            instrument = trackInstruments[activeTrack];
+        }
+        selectInstrument(instrument, 0);
+        event.end();
+        if (event.shouldCommit()) {
+            event.track = track;
+            event.eventCount = eventCount;
+            event.commit();
+        }
     }
 
     /**
@@ -89,12 +285,15 @@ public class MidiManager {
      * 
      * @param track index of the track to activate
      */
-    public void setActiveTrack(int track) {
+    public synchronized void setActiveTrack(int track) {
         if (track > NUM_TRACKS - 1) {
             throw new IndexOutOfBoundsException();
         }
-        activeTrack = track;
-        activeChannel = track;
+        ensureLoaded(track);
+        synchronized (noteLock) {
+            activeTrack = track;
+            activeChannel = track;
+        }
     }
 
     /**
@@ -102,7 +301,7 @@ public class MidiManager {
      *
      * @return the index of the currently active Track
      */
-    public int getActiveTrack() {
+    public synchronized int getActiveTrack() {
         return activeTrack;
     }
 
@@ -112,8 +311,13 @@ public class MidiManager {
      * @param track track to be checked
      * @return whether track is empty
      */
-    public boolean isEmpty(int track) {
-        return tracks[track].ticks() == 0;
+    public synchronized boolean isEmpty(int track) {
+        if (pendingTracks[track]) {
+            return project.getLastTick(track) == 0;
+        }
+        synchronized (noteLock) {
+            return tracks[track].ticks() == 0;
+        }
     }
 
     /**
@@ -123,11 +327,56 @@ public class MidiManager {
      * @param instrument int representing the instrument in general MIDI
      * @param tick       the tick in the recording, for mid-recording instrument changes
      */
-    public void selectInstrument(int instrument, int tick) {
-        ShortMessage msg = makeShortMessage(ShortMessage.PROGRAM_CHANGE, activeChannel, instrument, 0);
-        synthReceiver.send(msg, -1);
-        trackInstruments[activeTrack] = instrument;
-        tracks[activeTrack].add(new MidiEvent(msg, tick));
+    public synchronized void selectInstrument(int instrument, int tick) {
+        synchronized (noteLock) {
+            EngineEvents.InstrumentChange event = new EngineEvents.InstrumentChange();
+            event.begin();
+            ShortMessage msg = makeShortMessage(ShortMessage.PROGRAM_CHANGE, activeChannel, instrument, 0);
+            synthReceiver.send(msg, -1);
+            publish(msg);
+            trackInstruments[activeTrack] = instrument;
+            addEvent(activeTrack, msg, tick);
+            event.end();
+            if (event.shouldCommit()) {
+                event.track = activeTrack;
+                event.channel = activeChannel;
+                event.instrument = instrument;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Gets a hash of every event recorded in the sequence, which changes whenever any track changes
+     *
+     * @return the content hash of the sequence
+     */
+    public long getSequenceHash() {
+        synchronized (noteLock) {
+            return trackCache.getSequenceHash();
+        }
+    }
+
+    /**
+     * Gets the index of the notes in a track, which is kept up to date as the track changes. A track of
+     * an open project that hasn't been decoded yet is decoded first, so the index has all of its notes
+     *
+     * @param track the index of the track
+     * @return the track's note index
+     */
+    public synchronized NoteIndex getNoteIndex(int track) {
+        ensureLoaded(track);
+        return noteIndexes[track];
+    }
+
+    /**
+     * Gets the tick that is being played or recorded now. While recording this is the recording tick,
+     * which keeps going even after the sequencer has played every other track to its end
+     *
+     * @return the current tick of playback or recording
+     */
+    public synchronized long getPlayheadTick() {
+        return isRecording ? getCurrentTick() : sequencer.getTickPosition();
     }
 
     /**
@@ -135,112 +384,1628 @@ public class MidiManager {
      * 
      * @return whether the app is currently recording
      */
-    public boolean isRecording() {
+    public synchronized boolean isRecording() {
         return isRecording;
     }
 
+    /**
+     * Opens a journal that every event added to a track is appended to, after first recovering the
+     * tracks from anything already in it, so a take survives the app being killed before it is saved
+     *
+     * @param file the journal file
+     * @return the number of journal records that were recovered
+     */
+    public synchronized int openJournal(File file) {
+        int recovered = 0;
+        try {
+            RecordingJournal newJournal = new RecordingJournal(file);
+            synchronized (noteLock) {
+                recovered = newJournal.recover(new RecordingJournal.Replayer() {
+                    @Override
+                    public void clear(int track) {
+                        pendingTracks[track] = false;
+                        resetTrack(track);
+                    }
+
+                    @Override
+                    public void event(int track, ShortMessage msg, long tick) {
+                        ensureLoaded(track); // the project's events come before the ones added to it
+                        if (msg.getCommand() == ShortMessage.PROGRAM_CHANGE) {
+                            trackInstruments[track] = msg.getData1();
+                        }
+                        addEvent(track, msg, tick);
+                    }
+
+                    @Override
+                    public void project(File file) {
+                        try {
+                            ProjectFile recovered = openProjectFile(file);
+                            loadProject(recovered, decodeActiveTrack(recovered));
+                        } catch (Exception e) {
+                            System.out.println(e.getMessage());
+                            e.printStackTrace();
+                        }
+                    }
+
+                    @Override
+                    public void derived(int track, ShortMessage msg, long tick) {
+                        ensureLoaded(track);
+                        loadEvent(track, msg, tick, MidiTransform.DROP);
+                    }
+
+                    @Override
+                    public void raw(int track, ShortMessage msg, long tick) {
+                        ensureLoaded(track);
+                        rawTracks[track].add(rawOf(msg, tick));
+                    }
+
+                    @Override
+                    public void reshape(int track) {
+                        ensureLoaded(track);
+                        clearEvents(track);
+                    }
+                });
+                for (int i = 0; i < NUM_TRACKS; i++) {
+                    // transformed notes can be journaled out of tick order, so pair them up again
+                    if (!pendingTracks[i]) {
+                        noteIndexes[i].rebuild(tracks[i]);
+                    }
+                }
+                journal = newJournal;
+                restoreChannels();
+            }
+            if (recovered > 0) {
+                System.out.println("recovered " + recovered + " events from " + file);
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+        return recovered;
+    }
+
+    /*
+     * Audio output
+     */
+
+    /**
+     * Reopens the synthesizer with a different audio profile, keeping the instrument of every track
+     *
+     * @param profile the audio profile to switch to
+     */
+    public synchronized void setAudioProfile(AudioProfile profile) {
+        try {
+            stopStems(); // the stems were rendered in the old profile's format, so the synthesizer plays every track
+            stemCache.clear();
+            Receiver silent = new Receiver() {
+                @Override
+                public void send(MidiMessage message, long timeStamp) {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            synchronized (noteLock) {
+                // notes played while the synthesizer is reopened are still recorded, they just aren't heard
+                synthReceiver = silent;
+                seqTransmitter.setReceiver(silent);
+            }
+            closeOutputLine(); // stops pushing the synthesizer's output before it is closed
+            synthesizer.close();
+            openSynthesizer(profile);
+            synchronized (noteLock) {
+                synthReceiver = synthesizer.getReceiver();
+                seqTransmitter.setReceiver(synthReceiver);
+                restoreChannels();
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the audio profile the synthesizer was last opened with
+     *
+     * @return the current audio profile
+     */
+    public synchronized AudioProfile getAudioProfile() {
+        return audioProfile;
+    }
+
+    /**
+     * Lets stems that no longer fit in memory be moved to memory-mapped files in a directory instead of
+     * being dropped and rendered again the next time they are needed
+     *
+     * @param dir the directory to spill stems to, or null to drop them
+     */
+    public synchronized void setStemSpill(File dir) {
+        stemCache.clear();
+        stemCache = new StemCache(STEM_MEMORY_BUDGET, dir, STEM_SPILL_BUDGET);
+    }
+
+    /**
+     * Measures the latency of the synthesizer's output. When the synthesizer owns a line we opened, this
+     * is the real size of that line's buffer, which may differ from the size the profile asked for
+     *
+     * @return the effective output latency in microseconds
+     */
+    public synchronized long getOutputLatency() {
+        SourceDataLine line = outputLine;
+        if (line == null) {
+            return synthesizer.getLatency();
+        }
+        float frames = line.getBufferSize() / (float) line.getFormat().getFrameSize();
+        return (long) (frames / line.getFormat().getFrameRate() * 1000000);
+    }
+
+    /**
+     * Describes the current audio profile and the output latency it actually achieved
+     *
+     * @return a one line latency report
+     */
+    public synchronized String getLatencyReport() {
+        String applied = outputLine != null ? "" : " (profile not applied, using synthesizer defaults)";
+        return String.format("audio profile %s: requested %d ms, effective %.1f ms, %d underruns%s",
+            audioProfile, audioProfile.getLatencyMillis(), getOutputLatency() / 1000.0, underruns.get(),
+            applied);
+    }
+
+    /**
+     * Gets the histograms of how long notes take to get from a key press to the synthesizer's output
+     *
+     * @return the latency stats of this MidiManager
+     */
+    public LatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
+    /**
+     * Backs off to a safer audio profile if the output buffer has run dry three times within ten seconds,
+     * and keeps the stems being mixed in lined up with the sequencer. Meant to be called regularly from
+     * the UI thread
+     */
+    public synchronized void checkAudio() {
+        if (isUnderrunning() && audioProfile.getFallback() != null) {
+            System.out.println(getLatencyReport());
+            setAudioProfile(audioProfile.getFallback());
+        }
+        followSequencer();
+    }
+
     /*
      * Note playing
      */
 
     /**
-     * Plays a note in the active channel at the given pitch with a velocity of 64 on the synthesizer
+     * Handles a key of the keyboard being pressed, which plays its pitch, the remembered chord built on
+     * its pitch, or adds it to the arpeggio, depending on the arpeggiator's mode
+     * 
+     * @param pitch int representing the midi note value
+     * @param tick  the tick in the recording
+     */
+    public void pressKey(int pitch, int tick) {
+        // not synchronized, since the arpeggiator takes its own lock and then calls back into this MidiManager
+        arpeggiator.press(pitch, tick);
+    }
+
+    /**
+     * Handles a key of the keyboard being released
+     * 
+     * @param pitch int representing the midi note value
+     * @param tick  the tick in the recording
+     */
+    public void releaseKey(int pitch, int tick) {
+        arpeggiator.release(pitch, tick);
+    }
+
+    /**
+     * Gets the arpeggiator and chord memory that key presses go through
+     * 
+     * @return the arpeggiator of this MidiManager
+     */
+    public Arpeggiator getArpeggiator() {
+        return arpeggiator;
+    }
+
+    /**
+     * Sets where the current recording tick is read from when notes are played off the UI thread, such as
+     * by the arpeggiator
+     * 
+     * @param tickSource supplies the current recording tick
+     */
+    public void setTickSource(IntSupplier tickSource) {
+        synchronized (noteLock) {
+            this.tickSource = tickSource;
+        }
+    }
+
+    /**
+     * Gets the current recording tick from the tick source
+     * 
+     * @return the current recording tick
+     */
+    public int getCurrentTick() {
+        synchronized (noteLock) {
+            return tickSource.getAsInt();
+        }
+    }
+
+    /**
+     * Plays several notes in the active channel together. They are all given the synthesizer's current
+     * time as a shared time stamp, so they start on the same sample, and they are recorded with one
+     * append
+     * 
+     * @param pitches the midi note values to play
+     * @param count   the number of pitches to play from the start of the array
+     * @param tick    the tick in the recording
+     */
+    public void playPitches(int[] pitches, int count, int tick) {
+        synchronized (noteLock) {
+            playBatch(ShortMessage.NOTE_ON, pitches, Math.min(count, MAX_BATCH), tick);
+        }
+    }
+
+    /**
+     * Stops several notes in the active channel together, with a shared time stamp
+     * 
+     * @param pitches the midi note values to stop
+     * @param count   the number of pitches to stop from the start of the array
+     * @param tick    the tick in the recording
+     */
+    public void stopPitches(int[] pitches, int count, int tick) {
+        synchronized (noteLock) {
+            playBatch(ShortMessage.NOTE_OFF, pitches, Math.min(count, MAX_BATCH), tick);
+        }
+    }
+
+    /**
+     * Plays a note in the active channel at the given pitch with a velocity of 64 on the synthesizer,
+     * after running it through the live transforms
      * 
      * @param pitch int representing the midi note value
      */
     public void playPitch(int pitch, int tick) {
-        ShortMessage msg = makeShortMessage(ShortMessage.NOTE_ON, activeChannel, pitch, VELOCITY);
-        synthReceiver.send(msg, -1); // -1 means no time stamp
-        if (isRecording) {
-            tracks[activeTrack].add(new MidiEvent(msg, tick));
+        synchronized (noteLock) {
+            EngineEvents.NoteOn event = new EngineEvents.NoteOn();
+            event.begin();
+            long raw = MidiTransform.pack(tick, ShortMessage.NOTE_ON | activeChannel, pitch, VELOCITY);
+            long shaped = liveTransforms[activeTrack].apply(raw);
+            if (shaped != MidiTransform.DROP) {
+                liveNotes[pitch] = MidiTransform.data1Of(shaped);
+                ShortMessage msg = makeShortMessage(ShortMessage.NOTE_ON, activeChannel, liveNotes[pitch],
+                    MidiTransform.data2Of(shaped));
+                synthReceiver.send(msg, -1); // -1 means no time stamp
+                latencyStats.markSent(getOutputDelay());
+                publish(msg);
+                if (isRecording) {
+                    addEvent(activeTrack, msg, MidiTransform.tickOf(shaped), raw);
+                }
+            } else {
+                liveNotes[pitch] = -1;
+                if (isRecording) {
+                    addRaw(activeTrack, raw);
+                }
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.track = activeTrack;
+                event.channel = activeChannel;
+                event.pitch = pitch;
+                event.recorded = isRecording;
+                event.source = "keyboard";
+                event.commit();
+            }
         }
     }
 
     /**
-     * Stops the note playing at the input pitch on the active channel
+     * Stops the note playing at the input pitch on the active channel. The note that is stopped is the
+     * one the live transforms turned the input pitch into when it started, even if they have changed since
      * 
      * @param pitch int representing the midi note value
      */
     public void stopPitch(int pitch, int tick) {
-        ShortMessage msg = makeShortMessage(ShortMessage.NOTE_OFF, activeChannel, pitch, 0);
-        synthReceiver.send(msg, -1); // -1 means no time stamp
-        if (isRecording) {
-            tracks[activeTrack].add(new MidiEvent(msg, tick));
+        synchronized (noteLock) {
+            EngineEvents.NoteOff event = new EngineEvents.NoteOff();
+            event.begin();
+            long raw = MidiTransform.pack(tick, ShortMessage.NOTE_OFF | activeChannel, pitch, 0);
+            long shaped = liveTransforms[activeTrack].apply(raw);
+            if (liveNotes[pitch] >= 0) {
+                ShortMessage msg = makeShortMessage(ShortMessage.NOTE_OFF, activeChannel, liveNotes[pitch], 0);
+                synthReceiver.send(msg, -1); // -1 means no time stamp
+                publish(msg);
+                if (isRecording) {
+                    addEvent(activeTrack, msg, shaped != MidiTransform.DROP ? MidiTransform.tickOf(shaped) : tick, raw);
+                }
+            } else if (isRecording) {
+                addRaw(activeTrack, raw);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.track = activeTrack;
+                event.channel = activeChannel;
+                event.pitch = pitch;
+                event.recorded = isRecording;
+                event.source = "keyboard";
+                event.commit();
+            }
         }
     }
 
     /*
-     * Playback and recording
+     * Mixing
      */
 
     /**
-     * Plays the sequence on the sequencer
+     * Mutes or unmutes a track's playback. This takes effect straight away, even while the sequence is
+     * playing, without reloading it; notes the track was sounding are stopped
+     *
+     * @param track the index of the track
+     * @param mute  whether the track should be silent
      */
-    public void playSequence() {
-        try {
-            sequencer.setSequence(sequence);
-            sequencer.start();
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            e.printStackTrace();
-        }
+    public synchronized void setTrackMute(int track, boolean mute) {
+        trackMuted[track] = mute;
+        applyMuteSolo();
     }
 
     /**
-     * Pause the currently playing sequence in its current position
+     * @param track the index of the track
+     * @return whether the track is muted
      */
-    public void pauseSequence() {
-        sequencer.stop();
+    public synchronized boolean isTrackMuted(int track) {
+        return trackMuted[track];
     }
 
     /**
-     * Sets the sequencer position to the beginning of the sequence
+     * Solos or unsolos a track's playback. While any track is soloed, only soloed tracks are heard,
+     * whether or not they are muted. Like muting, this takes effect straight away
+     *
+     * @param track the index of the track
+     * @param solo  whether the track should be soloed
      */
-    public void setToStart() {
-        sequencer.setTickPosition(0);
+    public synchronized void setTrackSolo(int track, boolean solo) {
+        trackSoloed[track] = solo;
+        applyMuteSolo();
     }
 
     /**
-     * Start recording to the sequence on the active track
+     * @param track the index of the track
+     * @return whether the track is soloed
      */
-    public void startRecording() {
-        if (!isRecording) {
-            isRecording = true;
-            clearTrack(activeTrack);
-            setToStart();
-            playSequence();
+    public synchronized boolean isTrackSoloed(int track) {
+        return trackSoloed[track];
+    }
+
+    /**
+     * Sets the volume of a track's channel, which applies to both its playback and live playing on it
+     *
+     * @param track  the index of the track
+     * @param volume the channel volume, from 0 to 127
+     */
+    public synchronized void setTrackVolume(int track, int volume) {
+        trackVolumes[track] = volume;
+        synthReceiver.send(makeShortMessage(ShortMessage.CONTROL_CHANGE, track, VOLUME_CONTROLLER, volume), -1);
+        updateStemGain(track);
+    }
+
+    /**
+     * @param track the index of the track
+     * @return the volume of the track's channel, from 0 to 127
+     */
+    public synchronized int getTrackVolume(int track) {
+        return trackVolumes[track];
+    }
+
+    /**
+     * Sets where a track's channel sits between the left and right speakers
+     *
+     * @param track the index of the track
+     * @param pan   0 for fully left, 64 for the center, or 127 for fully right
+     */
+    public synchronized void setTrackPan(int track, int pan) {
+        trackPans[track] = pan;
+        synthReceiver.send(makeShortMessage(ShortMessage.CONTROL_CHANGE, track, PAN_CONTROLLER, pan), -1);
+        updateStemGain(track);
+    }
+
+    /**
+     * @param track the index of the track
+     * @return the pan of the track's channel, from 0 to 127
+     */
+    public synchronized int getTrackPan(int track) {
+        return trackPans[track];
+    }
+
+    /*
+     * External input
+     */
+
+    /**
+     * Plays and records everything a transmitter sends, such as a hardware controller or a virtual
+     * transmitter in a test. Its events are handled on whichever thread the transmitter delivers them
+     * on, going straight to the synthesizer and the active track without passing through the UI
+     *
+     * @param transmitter the transmitter to take input from
+     */
+    public synchronized void connectInput(Transmitter transmitter) {
+        transmitter.setReceiver(externalReceiver);
+        inputs.add(transmitter);
+    }
+
+    /**
+     * Opens every MIDI device that can send events, other than sequencers and synthesizers, and connects
+     * it as an input
+     *
+     * @return the number of devices connected
+     */
+    public synchronized int openInputDevices() {
+        int connected = 0;
+        for (MidiDevice.Info info : MidiSystem.getMidiDeviceInfo()) {
+            try {
+                MidiDevice device = MidiSystem.getMidiDevice(info);
+                if (device instanceof Sequencer || device instanceof Synthesizer || device.getMaxTransmitters() == 0) {
+                    continue;
+                }
+                device.open();
+                inputDevices.add(device);
+                connectInput(device.getTransmitter());
+                System.out.println("connected MIDI input " + info.getName());
+                connected++;
+            } catch (Exception e) {
+                System.out.println(info.getName() + ": " + e.getMessage());
+            }
         }
+        return connected;
     }
 
     /**
-     * Stop recording on the active track and return to the beginning of the sequence
+     * Disconnects every input connected with connectInput, and closes the devices opened by
+     * openInputDevices
      */
-    public void stopRecording() {
-        if (isRecording) {
-            isRecording = false;
-            pauseSequence();
-            setToStart();
+    public void disconnectInputs() {
+        List<Transmitter> transmitters;
+        List<MidiDevice> devices;
+        synchronized (this) {
+            transmitters = new ArrayList<>(inputs);
+            devices = new ArrayList<>(inputDevices);
+            inputs.clear();
+            inputDevices.clear();
+        }
+        // closed outside the lock, since they may wait for the events they are still delivering
+        for (Transmitter transmitter : transmitters) {
+            transmitter.close();
+        }
+        for (MidiDevice device : devices) {
+            device.close();
         }
     }
 
     /**
-     * Saves the data in the sequence to a MIDI file
-     * 
-     * @param filename the name of the file to be saved
+     * Sets the listener that is told when notes from an external input start and stop
+     *
+     * @param listener the listener, or null for none
      */
-    public void saveRecording(String filename) {
-        File file = new File(filename + ".mid");
+    public synchronized void setNoteListener(NoteListener listener) {
+        noteListener = listener;
+    }
+
+    /*
+     * Jamming
+     */
+
+    /**
+     * Starts streaming every note and instrument change played on this keyboard to another instance, and
+     * playing whatever that instance streams back. Events from the other instance play on a channel of
+     * their own unless setJamTrack picks a track for them
+     *
+     * @param localPort the UDP port to receive the other instance's events on
+     * @param peer      the address and port of the other instance
+     * @param jitterMs  how long to hold back received events to smooth out network jitter, or 0 to play
+     *                  them as soon as they arrive
+     */
+    public void startJam(int localPort, InetSocketAddress peer, double jitterMs) {
+        stopJam();
         try {
-            MidiSystem.write(sequence, 1, file);
+            JamLink link = new JamLink(localPort, peer, new Receiver() {
+                @Override
+                public void send(MidiMessage message, long timeStamp) {
+                    playRemote((ShortMessage) message);
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            link.setJitterDelay(jitterMs);
+            synchronized (this) {
+                jamLink = link;
+            }
+            System.out.println("jamming on port " + localPort + " with " + peer);
         } catch (Exception e) {
-            e.printStackTrace();
             System.out.println(e.getMessage());
+            e.printStackTrace();
         }
     }
 
-    /*
-     * Private methods
+    /**
+     * Stops streaming to and from the other instance, and silences any of its notes still sounding
+     */
+    public void stopJam() {
+        JamLink link;
+        synchronized (this) {
+            link = jamLink;
+            jamLink = null;
+        }
+        if (link != null) {
+            link.close(); // outside the lock, since it may wait for the events it is still delivering
+            synchronized (this) {
+                silenceJamChannel();
+            }
+        }
+    }
+
+    /**
+     * Picks the track that events from the other instance are played on and, while recording, recorded
+     * into
+     *
+     * @param track the index of the track, or -1 to play them on a channel of their own without recording
      */
+    public synchronized void setJamTrack(int track) {
+        if (track > NUM_TRACKS - 1) {
+            throw new IndexOutOfBoundsException();
+        }
+        silenceJamChannel();
+        jamTrack = track;
+    }
+
+    /**
+     * Gets the jam link's statistics
+     *
+     * @return a one line report of the events received from the other instance, or null if not jamming
+     */
+    public synchronized String getJamReport() {
+        JamLink link = jamLink;
+        return link != null ? link.getReport() : null;
+    }
+
+    /*
+     * Transforms
+     */
+
+    /**
+     * Sets the transforms that every note played from now on is run through before it is sounded and
+     * recorded. Each track gets its own copy of the chain, and each note is run through the copy of the
+     * track it is played on. What was actually played is still kept, so the transforms can be undone later
+     * 
+     * @param chain the transforms to apply to live input, or TransformChain.EMPTY for none
+     */
+    public synchronized void setLiveTransforms(TransformChain chain) {
+        synchronized (noteLock) {
+            for (int i = 0; i < NUM_TRACKS; i++) {
+                liveTransforms[i] = chain.forTrack(i);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds every track from what was originally played on it, run through the given transforms. The
+     * tracks are transformed in parallel, each with its own copy of the chain
+     * 
+     * @param chain the transforms to apply
+     */
+    public synchronized void applyTransforms(TransformChain chain) {
+        stopRecording();
+        ensureAllLoaded();
+        List<ForkJoinTask<long[]>> tasks = new ArrayList<>();
+        synchronized (noteLock) {
+            for (int i = 0; i < NUM_TRACKS; i++) {
+                TransformChain trackChain = chain.forTrack(i);
+                long[] raw = rawTracks[i].toArray();
+                tasks.add(ForkJoinTask.adapt(() -> trackChain.applyAll(raw, raw.length)));
+            }
+        }
+        // run outside the note lock, and nothing is recorded meanwhile, since recording can't start
+        // without the lock on the MidiManager
+        ForkJoinTask.invokeAll(tasks);
+        // the workers only shape events, so the tracks, the indexes and the journal stay on this thread
+        synchronized (noteLock) {
+            for (int i = 0; i < NUM_TRACKS; i++) {
+                reshapeTrack(i, tasks.get(i).join());
+            }
+        }
+    }
+
+    /**
+     * Undoes every transform by rebuilding each track from exactly what was played on it
+     */
+    public synchronized void undoTransforms() {
+        applyTransforms(TransformChain.EMPTY);
+    }
+
+    /*
+     * Playback and recording
+     */
+
+    /**
+     * Plays the sequence on the sequencer, only handing the sequence to the sequencer again if a track
+     * has changed since it was last loaded. Tracks other than the active one that have already been
+     * rendered with their current content and instrument are mixed in from their stems instead of being
+     * synthesized again, and those that haven't are rendered in the background for next time
+     */
+    public synchronized void playSequence() {
+        EngineEvents.PlaySequence event = new EngineEvents.PlaySequence();
+        event.begin();
+        ensureAllLoaded();
+        try {
+            boolean reload;
+            synchronized (noteLock) {
+                reload = sequencer.getSequence() != sequence || trackCache.isStale(trackInstruments);
+                if (reload) {
+                    sequencer.setSequence(sequence);
+                    trackCache.markLoaded(trackInstruments);
+                    loadedTracks = sequence.getTracks();
+                }
+                startStems();
+            }
+            applyMuteSolo();
+            sequencer.start();
+            event.end();
+            if (event.shouldCommit()) {
+                event.eventCount = countEvents();
+                event.reloaded = reload;
+                event.commit();
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Pause the currently playing sequence in its current position
+     */
+    public synchronized void pauseSequence() {
+        sequencer.stop();
+        if (stemPlayer != null) {
+            stemPlayer.stop();
+        }
+    }
+
+    /**
+     * Sets the sequencer position to the beginning of the sequence
+     */
+    public synchronized void setToStart() {
+        sequencer.setTickPosition(0);
+        if (stemPlayer != null) {
+            stemPlayer.seek(0);
+        }
+    }
+
+    /**
+     * Start recording to the sequence on the active track
+     */
+    public synchronized void startRecording() {
+        if (!isRecording) {
+            EngineEvents.StartRecording event = new EngineEvents.StartRecording();
+            event.begin();
+            synchronized (noteLock) {
+                isRecording = true;
+            }
+            clearTrack(activeTrack);
+            setToStart();
+            playSequence();
+            event.end();
+            if (event.shouldCommit()) {
+                event.track = activeTrack;
+                event.eventCount = countEvents();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Stop recording on the active track and return to the beginning of the sequence
+     */
+    public synchronized void stopRecording() {
+        if (isRecording) {
+            EngineEvents.StopRecording event = new EngineEvents.StopRecording();
+            event.begin();
+            synchronized (noteLock) {
+                isRecording = false;
+            }
+            pauseSequence();
+            setToStart();
+            event.end();
+            if (event.shouldCommit()) {
+                event.track = activeTrack;
+                event.eventCount = tracks[activeTrack].size();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Saves the data in the sequence to a MIDI file
+     * 
+     * @param filename the name of the file to be saved
+     */
+    public synchronized void saveRecording(String filename) {
+        File file = new File(filename + ".mid");
+        EngineEvents.SaveRecording event = new EngineEvents.SaveRecording();
+        event.begin();
+        ensureAllLoaded();
+        try {
+            Sequence copy;
+            int mark = 0;
+            synchronized (noteLock) {
+                copy = copySequence();
+                if (journal != null) {
+                    mark = journal.mark();
+                }
+            }
+            // written from the copy, so notes can still be played and recorded while the file is written
+            int bytesWritten = MidiSystem.write(copy, 1, file);
+            synchronized (noteLock) {
+                if (journal != null) {
+                    journal.restart(mark, null);
+                }
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = file.getPath();
+                event.eventCount = countEvents();
+                event.bytesWritten = bytesWritten;
+                event.commit();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the whole project, including each track's instrument and the active track, to a project file
+     * that can be opened again with openProject
+     * 
+     * @param filename the name of the file to be saved, without its extension
+     */
+    public synchronized void saveProject(String filename) {
+        File file = new File(filename + ProjectFile.EXTENSION);
+        EngineEvents.SaveProject event = new EngineEvents.SaveProject();
+        event.begin();
+        ensureAllLoaded();
+        try {
+            Sequence copy;
+            int[] instruments;
+            int mark = 0;
+            synchronized (noteLock) {
+                copy = copySequence();
+                instruments = trackInstruments.clone();
+                if (journal != null) {
+                    mark = journal.mark();
+                }
+            }
+            // compressed and written from the copy, so notes can still be played and recorded meanwhile
+            long bytesWritten = ProjectFile.write(file, copy.getTracks(), instruments, activeTrack,
+                copy.getDivisionType(), copy.getResolution(), true);
+            synchronized (noteLock) {
+                if (journal != null) {
+                    // recovery starts from the project, followed by whatever was recorded while it was written
+                    journal.restart(mark, file);
+                }
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = file.getPath();
+                event.eventCount = countEvents();
+                event.bytesWritten = bytesWritten;
+                event.commit();
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Opens a project file saved with saveProject, replacing every track. Only the project's directory and
+     * active track are read straight away; each other track is decoded the first time it is selected or
+     * played. If the file is damaged or doesn't match this keyboard, the current tracks are left as they are
+     * 
+     * @param filename the name of the file to be opened, without its extension
+     */
+    public synchronized void openProject(String filename) {
+        File file = new File(filename + ProjectFile.EXTENSION);
+        EngineEvents.OpenProject event = new EngineEvents.OpenProject();
+        event.begin();
+        try {
+            // everything that can fail is done before anything about the current tracks is changed
+            ProjectFile newProject = openProjectFile(file);
+            List<MidiEvent> activeEvents = decodeActiveTrack(newProject);
+            stopRecording();
+            pauseSequence();
+            int trackCount;
+            synchronized (noteLock) {
+                trackCount = loadProject(newProject, activeEvents);
+                if (journal != null) {
+                    // the project replaces every track, so recovery can start from it instead of the journal's events
+                    journal.reset();
+                    journal.appendProject(file);
+                }
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = file.getPath();
+                event.trackCount = trackCount;
+                event.commit();
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops playback, recording and every background thread, and closes the devices, for when the
+     * MidiManager is no longer needed
+     */
+    public void close() {
+        synchronized (this) {
+            stopRecording();
+            pauseSequence();
+        }
+        // the arpeggiator, jam link and inputs call into this MidiManager, so they are stopped outside the lock
+        arpeggiator.stop();
+        stopJam();
+        disconnectInputs();
+        synchronized (this) {
+            audioWatchdog.shutdownNow();
+            stemExecutor.shutdownNow();
+            stemCache.clear();
+            releaseProject();
+            synchronized (noteLock) {
+                if (journal != null) {
+                    journal.close();
+                    journal = null;
+                }
+            }
+            sequencer.close();
+            closeOutputLine();
+            synthesizer.close();
+        }
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Opens a project file, checking that it has as many tracks as this keyboard and the same timing
+     */
+    private ProjectFile openProjectFile(File file) throws IOException, InvalidMidiDataException {
+        ProjectFile newProject = new ProjectFile(file);
+        if (newProject.getNumTracks() != NUM_TRACKS || newProject.getDivisionType() != sequence.getDivisionType()
+            || newProject.getResolution() != sequence.getResolution()) {
+            newProject.close();
+            throw new InvalidMidiDataException(file + " doesn't match this keyboard's tracks and timing");
+        }
+        return newProject;
+    }
+
+    /**
+     * Decodes the track of a project that was active when it was saved, closing the project if the track
+     * is damaged
+     */
+    private static List<MidiEvent> decodeActiveTrack(ProjectFile newProject) throws IOException {
+        try {
+            return newProject.decodeTrack(newProject.getActiveTrack());
+        } catch (IOException e) {
+            newProject.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces every track with an empty one waiting to be decoded from a project file, except the
+     * project's active track, whose events have already been decoded; returns the number of tracks that
+     * have events. Nothing is journaled, since the journal only needs to know which project was opened
+     */
+    private int loadProject(ProjectFile newProject, List<MidiEvent> activeEvents) {
+        releaseProject();
+        project = newProject;
+        int trackCount = 0;
+        for (int i = 0; i < NUM_TRACKS; i++) {
+            resetTrack(i);
+            trackInstruments[i] = project.getInstrument(i);
+            pendingTracks[i] = project.getEventCount(i) > 0;
+            trackCount += pendingTracks[i] ? 1 : 0;
+        }
+        restoreChannels();
+        activeTrack = project.getActiveTrack();
+        activeChannel = activeTrack;
+        pendingTracks[activeTrack] = false;
+        for (MidiEvent event : activeEvents) {
+            loadEvent(activeTrack, event.getMessage(), event.getTick(), rawOf(event.getMessage(), event.getTick()));
+        }
+        releaseIfLoaded();
+        return trackCount;
+    }
+
+    /**
+     * Decodes a track from the open project file if it hasn't been decoded yet, and then adds its events
+     * under the note lock. The decoded events aren't journaled, since they are already saved in the
+     * project
+     */
+    private void ensureLoaded(int track) {
+        if (!pendingTracks[track]) {
+            return;
+        }
+        pendingTracks[track] = false;
+        try {
+            // decoded outside the note lock, so notes can still be played while it runs
+            List<MidiEvent> events = project.decodeTrack(track);
+            synchronized (noteLock) {
+                for (MidiEvent event : events) {
+                    loadEvent(track, event.getMessage(), event.getTick(), rawOf(event.getMessage(), event.getTick()));
+                }
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+        releaseIfLoaded();
+    }
+
+    /**
+     * Closes the open project file once none of its tracks are waiting to be decoded
+     */
+    private void releaseIfLoaded() {
+        for (boolean pending : pendingTracks) {
+            if (pending) {
+                return;
+            }
+        }
+        releaseProject();
+    }
+
+    /**
+     * Decodes every track of the open project file that hasn't been decoded yet
+     */
+    private void ensureAllLoaded() {
+        for (int i = 0; i < NUM_TRACKS; i++) {
+            ensureLoaded(i);
+        }
+    }
+
+    /**
+     * Closes the open project file, if there is one
+     */
+    private void releaseProject() {
+        if (project != null) {
+            project.close();
+            project = null;
+        }
+    }
+
+    /**
+     * Opens the synthesizer to render into a stream that the stem player pushes to an output line we own,
+     * sized by the given profile. The software synthesizer only renders into a stream and takes open-time
+     * settings through an interface the JDK does not export, so this needs the JVM option
+     * --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED; without it the synthesizer is opened with
+     * its defaults
+     */
+    private void openSynthesizer(AudioProfile profile) throws MidiUnavailableException {
+        audioProfile = profile;
+        underruns.set(0);
+        stemRenderer = null;
+        stemPlayer = null;
+        try {
+            Method openStream = synthesizer.getClass().getMethod("openStream", AudioFormat.class, Map.class);
+            if (!openStream.canAccess(synthesizer)) {
+                System.out.println("audio profile " + profile + " not applied: the synthesizer's settings need the "
+                    + "JVM option --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED");
+            } else {
+                SourceDataLine line = AudioSystem.getSourceDataLine(profile.getFormat());
+                line.open(profile.getFormat(), profile.getBufferSize());
+                try {
+                    AudioInputStream stream = (AudioInputStream) openStream.invoke(synthesizer, profile.getFormat(),
+                        profile.getInfoMap());
+                    outputLine = line;
+                    // the stem player pushes the synthesizer's output to the line, mixing in tracks rendered
+                    // offline through the same interface, so unchanged tracks don't have to be synthesized again
+                    stemRenderer = new StemRenderer(profile);
+                    stemPlayer = new StemPlayer(stream, line, NUM_TRACKS);
+                    stemPlayer.open();
+                } catch (Exception e) {
+                    line.close();
+                    throw e;
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("audio profile " + profile + " not applied: " + e.getMessage());
+        }
+        if (!synthesizer.isOpen()) {
+            synthesizer.open();
+        }
+        System.out.println(getLatencyReport());
+    }
+
+    /**
+     * Measures how much audio is queued in the output buffer ahead of anything played now, falling back
+     * to the synthesizer's reported latency when it doesn't use a line we opened
+     */
+    private long getOutputDelay() {
+        SourceDataLine line = outputLine;
+        if (line == null) {
+            return synthesizer.getLatency() * 1000;
+        }
+        float frames = (line.getBufferSize() - line.available()) / (float) line.getFormat().getFrameSize();
+        return (long) (frames / line.getFormat().getFrameRate() * 1e9);
+    }
+
+    /**
+     * Stops pushing the synthesizer's output and closes the output line that we opened for it, if there
+     * is one
+     */
+    private void closeOutputLine() {
+        if (stemPlayer != null) {
+            stemPlayer.close();
+        }
+        SourceDataLine line = outputLine;
+        outputLine = null;
+        if (line != null) {
+            line.close();
+        }
+    }
+
+    /**
+     * Sends each track's instrument to its channel again, for after the synthesizer has been reopened
+     */
+    private void restoreChannels() {
+        for (int i = 0; i < NUM_TRACKS; i++) {
+            synthReceiver.send(makeShortMessage(ShortMessage.PROGRAM_CHANGE, i, trackInstruments[i], 0), -1);
+            synthReceiver.send(makeShortMessage(ShortMessage.CONTROL_CHANGE, i, VOLUME_CONTROLLER, trackVolumes[i]), -1);
+            synthReceiver.send(makeShortMessage(ShortMessage.CONTROL_CHANGE, i, PAN_CONTROLLER, trackPans[i]), -1);
+        }
+    }
+
+    /**
+     * Finds where a track was in the sequence when it was last handed to the sequencer, which is how the
+     * sequencer numbers tracks for muting; clearing a track moves it to the end of the sequence, so this
+     * can differ from the track's own index. Returns -1 if the track wasn't loaded
+     */
+    private int loadedIndexOf(int track) {
+        for (int i = 0; i < loadedTracks.length; i++) {
+            if (loadedTracks[i] == tracks[track]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Works out which tracks can be heard: while any track is soloed only soloed tracks are, whether or
+     * not they are muted, and otherwise every track that isn't muted
+     */
+    private boolean isAudible(int track) {
+        for (boolean soloed : trackSoloed) {
+            if (soloed) {
+                return trackSoloed[track];
+            }
+        }
+        return !trackMuted[track];
+    }
+
+    /**
+     * Tells the sequencer and the stem player which tracks can be heard, for after a track has been muted
+     * or soloed or the sequencer has been given the sequence with its tracks in a different order. The
+     * sequencer is only ever told to mute tracks, since a track mixed in from its stem has to stay silent
+     * on the synthesizer even when it is soloed
+     */
+    private void applyMuteSolo() {
+        for (int i = 0; i < loadedTracks.length; i++) {
+            sequencer.setTrackMute(i, false);
+            sequencer.setTrackSolo(i, false);
+        }
+        for (int i = 0; i < NUM_TRACKS; i++) {
+            int index = loadedIndexOf(i);
+            if (index >= 0) {
+                sequencer.setTrackMute(index, stemmed[i] || !isAudible(i));
+            }
+            updateStemGain(i);
+        }
+    }
+
+    /**
+     * Mixes in the stems of every track other than the active one that has been rendered with its current
+     * content and instrument, starting from the sequencer's position, and starts rendering the tracks
+     * that haven't been. Tracks mixed in are marked, so they are muted on the sequencer
+     */
+    private void startStems() {
+        for (int i = 0; i < NUM_TRACKS; i++) {
+            stemmed[i] = false;
+        }
+        if (stemPlayer == null) {
+            return;
+        }
+        ByteBuffer[] stems = new ByteBuffer[NUM_TRACKS];
+        boolean any = false;
+        for (int i = 0; i < NUM_TRACKS; i++) {
+            if (i == activeTrack || tracks[i].ticks() == 0) {
+                continue;
+            }
+            StemCache.Stem stem = stemCache.get(trackCache.getContentHash(i), trackInstruments[i]);
+            if (stem != null) {
+                stems[i] = stem.getPcm();
+                any = true;
+            } else {
+                renderStem(i);
+            }
+        }
+        if (!any) {
+            stemPlayer.stop();
+            return;
+        }
+        stemPlayer.start(stems, sequencerFrame());
+        for (int i = 0; i < NUM_TRACKS; i++) {
+            stemmed[i] = stems[i] != null;
+        }
+    }
+
+    /**
+     * Moves the stems back in line with the sequencer once they have drifted too far from it. Stems move
+     * with the samples the synthesizer renders, while the sequencer sends the other tracks by the system
+     * clock, and the two clocks run at slightly different speeds
+     */
+    private void followSequencer() {
+        StemPlayer player = stemPlayer;
+        if (player == null || !player.isPlaying() || !sequencer.isRunning()) {
+            return;
+        }
+        long frame = sequencerFrame();
+        float limit = stemRenderer.getFormat().getFrameRate() * STEM_DRIFT_LIMIT_MS / 1000;
+        if (Math.abs(player.getFrame() - frame) > limit) {
+            player.seek(frame);
+        }
+    }
+
+    /**
+     * Converts the sequencer's position into a frame of the stems
+     */
+    private long sequencerFrame() {
+        return (long) (sequencer.getMicrosecondPosition() * (stemRenderer.getFormat().getFrameRate() / 1e6));
+    }
+
+    /**
+     * Stops mixing in stems, so the synthesizer plays every track again
+     */
+    private void stopStems() {
+        if (stemPlayer != null) {
+            stemPlayer.stop();
+        }
+        for (int i = 0; i < NUM_TRACKS; i++) {
+            stemmed[i] = false;
+        }
+        applyMuteSolo();
+    }
+
+    /**
+     * Renders a track's stem on the stem renderer's thread from a copy of its events, unless the same
+     * content is already being rendered. The stem is only kept if the audio profile hasn't changed since
+     */
+    private void renderStem(int track) {
+        long contentHash = trackCache.getContentHash(track);
+        int program = trackInstruments[track];
+        long key = StemCache.key(contentHash, program);
+        StemRenderer renderer = stemRenderer;
+        StemCache cache = stemCache;
+        if (!stemsRendering.add(key)) {
+            return;
+        }
+        List<MidiEvent> events = new ArrayList<>(tracks[track].size());
+        for (int i = 0; i < tracks[track].size(); i++) {
+            events.add(tracks[track].get(i));
+        }
+        double microsPerTick = 1e6 / (sequence.getDivisionType() * sequence.getResolution());
+        stemExecutor.execute(() -> {
+            try {
+                byte[] pcm = renderer.render(events, track, program, microsPerTick);
+                if (renderer == stemRenderer) {
+                    cache.put(contentHash, program, pcm);
+                }
+            } catch (Exception e) {
+                System.out.println(e.getMessage());
+                e.printStackTrace();
+            } finally {
+                stemsRendering.remove(key);
+            }
+        });
+    }
+
+    /**
+     * Tells the stem player how loud a track's stem is in each speaker. Stems are rendered at full volume
+     * in the center, and the synthesizer's volume scales amplitude by the square of the controller value,
+     * so the same curve is used here; pan fades out the opposite speaker
+     */
+    private void updateStemGain(int track) {
+        StemPlayer player = stemPlayer;
+        if (player == null) {
+            return;
+        }
+        float volume = isAudible(track) ? (float) Math.pow(trackVolumes[track] / 127.0, 2) : 0;
+        float balance = Math.max(-1, Math.min(1, (trackPans[track] - CENTER_PAN) / 63f));
+        player.setGain(track, volume * Math.min(1, 1 - balance), volume * Math.min(1, 1 + balance));
+    }
+
+    /**
+     * Starts a background thread that counts the times the output line's buffer is found completely
+     * empty, which means the synthesizer couldn't render audio fast enough to keep up
+     */
+    private void startAudioWatchdog() {
+        audioWatchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "audio-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        boolean[] wasEmpty = new boolean[1]; // only touched by the watchdog's thread
+        audioWatchdog.scheduleAtFixedRate(() -> {
+            SourceDataLine line = outputLine;
+            boolean empty = line != null && line.isRunning() && line.available() >= line.getBufferSize();
+            if (empty && !wasEmpty[0]) {
+                // a buffer that stays empty across several checks is still only one underrun
+                int count = underruns.incrementAndGet();
+                underrunTimes.set(count % UNDERRUN_LIMIT, System.nanoTime());
+            }
+            wasEmpty[0] = empty;
+        }, WATCHDOG_PERIOD_MS, WATCHDOG_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks whether the last few underruns all happened within the underrun window, which means the
+     * profile can't keep up rather than the odd glitch over a long session
+     */
+    private boolean isUnderrunning() {
+        int count = underruns.get();
+        if (count < UNDERRUN_LIMIT) {
+            return false;
+        }
+        long newest = underrunTimes.get(count % UNDERRUN_LIMIT);
+        long oldest = underrunTimes.get((count + 1) % UNDERRUN_LIMIT);
+        return newest - oldest <= TimeUnit.MILLISECONDS.toNanos(UNDERRUN_WINDOW_MS);
+    }
+
+    /**
+     * Copies every track into a new sequence, which can be written to a file without the note lock. Must
+     * be called holding the note lock
+     */
+    private Sequence copySequence() throws InvalidMidiDataException {
+        Sequence copy = new Sequence(sequence.getDivisionType(), sequence.getResolution(), NUM_TRACKS);
+        Track[] copies = copy.getTracks();
+        for (int i = 0; i < NUM_TRACKS; i++) {
+            for (int j = 0; j < tracks[i].size(); j++) {
+                copies[i].add(tracks[i].get(j));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Counts the events in every track of the sequence. Tracks lock themselves, and the tracks array is
+     * only changed holding both locks, so this doesn't need the note lock
+     */
+    private int countEvents() {
+        int count = 0;
+        for (Track track : tracks) {
+            count += track.size();
+        }
+        return count;
+    }
+
+    /**
+     * Sends an event played on this keyboard to the other instance, if jamming
+     */
+    private void publish(ShortMessage msg) {
+        JamLink link = jamLink;
+        if (link != null) {
+            link.send(msg, -1);
+        }
+    }
+
+    /**
+     * Plays an event received from the other instance on the jam track's channel, recording it into the
+     * jam track while recording
+     */
+    private void playRemote(ShortMessage msg) {
+        synchronized (noteLock) {
+            jdk.jfr.Event event = beginMessageEvent(msg.getCommand());
+            int track = jamTrack;
+            int channel = track >= 0 ? track : JAM_CHANNEL;
+            ShortMessage remapped = makeShortMessage(msg.getCommand(), channel, msg.getData1(), msg.getData2());
+            if (remapped == null) {
+                return;
+            }
+            synthReceiver.send(remapped, -1);
+            boolean recorded = track >= 0 && isRecording;
+            if (recorded) {
+                if (msg.getCommand() == ShortMessage.PROGRAM_CHANGE) {
+                    trackInstruments[track] = msg.getData1();
+                }
+                addEvent(track, remapped, getCurrentTick());
+            }
+            commitMessageEvent(event, remapped, track, recorded, "jam");
+        }
+    }
+
+    /**
+     * Plays an event from an external input on the active channel, keeping the velocity it was played
+     * with, and records it while recording. Runs on the input's own thread
+     */
+    private void playExternal(ShortMessage msg, long received) {
+        int command = msg.getCommand();
+        if (command == ShortMessage.NOTE_ON && msg.getData2() == 0) {
+            command = ShortMessage.NOTE_OFF; // many controllers stop notes with a note on that has no velocity
+        }
+        if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF
+            && command != ShortMessage.CONTROL_CHANGE && command != ShortMessage.PITCH_BEND) {
+            return; // clock, active sensing and other messages that don't belong in a track
+        }
+        synchronized (noteLock) {
+            jdk.jfr.Event event = beginMessageEvent(command);
+            ShortMessage remapped = makeShortMessage(command, activeChannel, msg.getData1(), msg.getData2());
+            if (remapped == null) {
+                return;
+            }
+            synthReceiver.send(remapped, -1);
+            if (command == ShortMessage.NOTE_ON) {
+                latencyStats.recordExternal(received, getOutputDelay());
+            }
+            publish(remapped);
+            if (isRecording) {
+                addEvent(activeTrack, remapped, getCurrentTick());
+            }
+            commitMessageEvent(event, remapped, activeTrack, isRecording, "external");
+            NoteListener listener = noteListener;
+            if (listener != null && (command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF)) {
+                listener.noteChanged(msg.getData1(), command == ShortMessage.NOTE_ON);
+            }
+        }
+    }
+
+    /**
+     * Begins the flight recorder event for a message from an external input or the other instance of a
+     * jam, which is a note on, note off or instrument change event depending on the message; returns null
+     * for messages that aren't any of those
+     */
+    private jdk.jfr.Event beginMessageEvent(int command) {
+        jdk.jfr.Event event = null;
+        if (command == ShortMessage.NOTE_ON) {
+            event = new EngineEvents.NoteOn();
+        } else if (command == ShortMessage.NOTE_OFF) {
+            event = new EngineEvents.NoteOff();
+        } else if (command == ShortMessage.PROGRAM_CHANGE) {
+            event = new EngineEvents.InstrumentChange();
+        }
+        if (event != null) {
+            event.begin();
+        }
+        return event;
+    }
+
+    /**
+     * Ends and commits an event begun by beginMessageEvent, filling it in from the message that was played
+     */
+    private void commitMessageEvent(jdk.jfr.Event event, ShortMessage msg, int track, boolean recorded,
+        String source) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        if (event instanceof EngineEvents.NoteOn) {
+            EngineEvents.NoteOn noteOn = (EngineEvents.NoteOn) event;
+            noteOn.track = track;
+            noteOn.channel = msg.getChannel();
+            noteOn.pitch = msg.getData1();
+            noteOn.recorded = recorded;
+            noteOn.source = source;
+        } else if (event instanceof EngineEvents.NoteOff) {
+            EngineEvents.NoteOff noteOff = (EngineEvents.NoteOff) event;
+            noteOff.track = track;
+            noteOff.channel = msg.getChannel();
+            noteOff.pitch = msg.getData1();
+            noteOff.recorded = recorded;
+            noteOff.source = source;
+        } else {
+            EngineEvents.InstrumentChange change = (EngineEvents.InstrumentChange) event;
+            change.track = track;
+            change.channel = msg.getChannel();
+            change.instrument = msg.getData1();
+        }
+        event.commit();
+    }
+
+    /**
+     * Stops every note on the channel that events from the other instance are played on
+     */
+    private void silenceJamChannel() {
+        int channel = jamTrack >= 0 ? jamTrack : JAM_CHANNEL;
+        synthReceiver.send(makeShortMessage(ShortMessage.CONTROL_CHANGE, channel, ALL_NOTES_OFF, 0), -1);
+    }
+
+    /**
+     * Runs a batch of note ons or note offs through the live transforms, sends them all with one time
+     * stamp, and records them together
+     */
+    private void playBatch(int command, int[] pitches, int count, int tick) {
+        EngineEvents.NoteBatch batchEvent = new EngineEvents.NoteBatch();
+        batchEvent.begin();
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int pitch = pitches[i];
+            int velocity = command == ShortMessage.NOTE_ON ? VELOCITY : 0;
+            long raw = MidiTransform.pack(tick, command | activeChannel, pitch, velocity);
+            long shaped = liveTransforms[activeTrack].apply(raw);
+            if (command == ShortMessage.NOTE_ON) {
+                liveNotes[pitch] = shaped != MidiTransform.DROP ? MidiTransform.data1Of(shaped) : -1;
+            }
+            if (liveNotes[pitch] < 0) {
+                if (isRecording) {
+                    addRaw(activeTrack, raw);
+                }
+                continue;
+            }
+            int outVelocity = shaped != MidiTransform.DROP ? MidiTransform.data2Of(shaped) : 0;
+            batchMessages[size] = makeShortMessage(command, activeChannel, liveNotes[pitch], outVelocity);
+            batchTicks[size] = shaped != MidiTransform.DROP ? MidiTransform.tickOf(shaped) : tick;
+            batchRaw[size] = raw;
+            size++;
+        }
+
+        long timeStamp = synthesizer.getMicrosecondPosition();
+        for (int i = 0; i < size; i++) {
+            synthReceiver.send(batchMessages[i], timeStamp);
+        }
+        if (command == ShortMessage.NOTE_ON && size > 0) {
+            latencyStats.markSent(getOutputDelay());
+        }
+        for (int i = 0; i < size; i++) {
+            publish(batchMessages[i]);
+        }
+        if (isRecording) {
+            addEvents(activeTrack, batchMessages, batchTicks, batchRaw, size);
+        }
+        batchEvent.end();
+        if (batchEvent.shouldCommit()) {
+            batchEvent.track = activeTrack;
+            batchEvent.channel = activeChannel;
+            batchEvent.noteOn = command == ShortMessage.NOTE_ON;
+            batchEvent.noteCount = size;
+            batchEvent.recorded = isRecording;
+            batchEvent.commit();
+        }
+    }
+
+    /**
+     * Replaces a track with a new empty one, forgetting what was played on it
+     */
+    private void resetTrack(int track) {
+        clearEvents(track);
+        rawTracks[track] = new PackedTrack();
+    }
+
+    /**
+     * Replaces a track with a new empty one, but keeps what was played on it so it can be transformed
+     * again
+     */
+    private void clearEvents(int track) {
+        sequence.deleteTrack(tracks[track]);
+        tracks[track] = sequence.createTrack();
+        trackCache.reset(track);
+        noteIndexes[track].clear();
+    }
+
+    /**
+     * Replaces the events of a track with the ones transforms shaped from what was played on it, which is
+     * kept as it was
+     */
+    private void reshapeTrack(int track, long[] shaped) {
+        clearEvents(track);
+        if (journal != null) {
+            journal.appendReshape(track);
+        }
+        for (long event : shaped) {
+            ShortMessage msg = makeShortMessage(MidiTransform.statusOf(event), MidiTransform.data1Of(event),
+                MidiTransform.data2Of(event));
+            addEvent(track, msg, MidiTransform.tickOf(event), MidiTransform.DROP);
+        }
+        // transforms can move notes past each other, so pair them up again in tick order
+        noteIndexes[track].rebuild(tracks[track]);
+    }
+
+    /**
+     * Adds an event to a track that wasn't changed by any transform, so it is also what was played
+     */
+    private void addEvent(int track, MidiMessage msg, long tick) {
+        addEvent(track, msg, tick, rawOf(msg, tick));
+    }
+
+    /**
+     * Adds an event to a track, keeping the track's content hash and the journal up to date, and keeping
+     * what was originally played unless raw is MidiTransform.DROP
+     */
+    private void addEvent(int track, MidiMessage msg, long tick, long raw) {
+        loadEvent(track, msg, tick, raw);
+        if (journal != null && msg instanceof ShortMessage) {
+            journal.append(track, (ShortMessage) msg, tick, raw);
+        }
+    }
+
+    /**
+     * Adds events that were played together to a track, journaling them as one batch
+     */
+    private void addEvents(int track, ShortMessage[] msgs, long[] ticks, long[] raws, int count) {
+        for (int i = 0; i < count; i++) {
+            loadEvent(track, msgs[i], ticks[i], raws[i]);
+        }
+        if (journal != null) {
+            journal.append(track, msgs, ticks, raws, count);
+        }
+    }
+
+    /**
+     * Keeps an event that was played but that the live transforms dropped, so undoing them brings it back
+     */
+    private void addRaw(int track, long raw) {
+        rawTracks[track].add(raw);
+        if (journal != null) {
+            journal.appendRaw(track, raw);
+        }
+    }
+
+    /**
+     * Adds an event to a track without journaling it, either because the caller journals it or because it
+     * is already saved somewhere else
+     */
+    private void loadEvent(int track, MidiMessage msg, long tick, long raw) {
+        MidiEvent event = new MidiEvent(msg, tick);
+        tracks[track].add(event);
+        trackCache.record(track, event);
+        noteIndexes[track].add(msg, tick);
+        if (raw != MidiTransform.DROP) {
+            rawTracks[track].add(raw);
+        }
+    }
+
+    /**
+     * Packs an event that wasn't changed by any transform as what was played, or returns
+     * MidiTransform.DROP for messages that can't be packed
+     */
+    private static long rawOf(MidiMessage msg, long tick) {
+        if (msg instanceof ShortMessage) {
+            ShortMessage shortMsg = (ShortMessage) msg;
+            return MidiTransform.pack(tick, shortMsg.getStatus(), shortMsg.getData1(), shortMsg.getData2());
+        }
+        return MidiTransform.DROP;
+    }
+
+    /**
+     * Helper method for creating a midi message from a status byte that already includes its channel;
+     * returns null if the input data is invalid
+     */
+    private ShortMessage makeShortMessage(int status, int data1, int data2) {
+        ShortMessage newMsg = null;
+        try {
+            newMsg = new ShortMessage(status, data1, data2);
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+        return newMsg;
+    }
 
     /**
      * Helper method to handle exception stuff when creating a midi message; returns null if the input
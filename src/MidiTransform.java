@@ -0,0 +1,117 @@
+public interface MidiTransform {
+    /**
+     * Returned by a transform in place of an event to remove the event
+     */
+    long DROP = -1;
+
+    /**
+     * Transforms one packed event. Events are packed into a long by pack(), so a chain of transforms can
+     * run over a track without allocating anything per event
+     *
+     * @param event the packed event
+     * @return the transformed packed event, or DROP to remove it
+     */
+    long apply(long event);
+
+    /**
+     * Gets a version of this transform to run over one track. Transforms that remember earlier events,
+     * such as how far a held note was moved, return a fresh copy so tracks can be transformed in parallel;
+     * transforms without state return themselves
+     *
+     * @param track the index of the track the transform will run over
+     * @return a transform for the track
+     */
+    default MidiTransform forTrack(int track) {
+        return this;
+    }
+
+    /**
+     * Packs an event's tick and the three bytes of its message into a long
+     *
+     * @param tick   the tick of the event
+     * @param status the status byte of the message, including its channel
+     * @param data1  the first data byte of the message
+     * @param data2  the second data byte of the message
+     * @return the packed event
+     */
+    static long pack(long tick, int status, int data1, int data2) {
+        return tick << 24 | (status & 0xFF) << 16 | (data1 & 0xFF) << 8 | (data2 & 0xFF);
+    }
+
+    /**
+     * @param event a packed event
+     * @return the tick of the event
+     */
+    static long tickOf(long event) {
+        return event >>> 24;
+    }
+
+    /**
+     * @param event a packed event
+     * @return the status byte of the event's message
+     */
+    static int statusOf(long event) {
+        return (int) (event >>> 16) & 0xFF;
+    }
+
+    /**
+     * @param event a packed event
+     * @return the first data byte of the event's message
+     */
+    static int data1Of(long event) {
+        return (int) (event >>> 8) & 0xFF;
+    }
+
+    /**
+     * @param event a packed event
+     * @return the second data byte of the event's message
+     */
+    static int data2Of(long event) {
+        return (int) event & 0xFF;
+    }
+
+    /**
+     * @param event a packed event
+     * @param tick  the new tick, which is clamped to 0 if negative
+     * @return the event moved to the new tick
+     */
+    static long withTick(long event, long tick) {
+        return Math.max(tick, 0) << 24 | (event & 0xFFFFFF);
+    }
+
+    /**
+     * @param event a packed event
+     * @param data1 the new first data byte
+     * @return the event with its first data byte replaced
+     */
+    static long withData1(long event, int data1) {
+        return event & ~0xFF00L | (data1 & 0xFF) << 8;
+    }
+
+    /**
+     * @param event a packed event
+     * @param data2 the new second data byte
+     * @return the event with its second data byte replaced
+     */
+    static long withData2(long event, int data2) {
+        return event & ~0xFFL | (data2 & 0xFF);
+    }
+
+    /**
+     * @param event a packed event
+     * @return whether the event starts a note
+     */
+    static boolean isNoteOn(long event) {
+        return (statusOf(event) & 0xF0) == 0x90 && data2Of(event) > 0;
+    }
+
+    /**
+     * @param event a packed event
+     * @return whether the event stops a note, including a note on with a velocity of 0
+     */
+    static boolean isNoteOff(long event) {
+        int command = statusOf(event) & 0xF0;
+        return command == 0x80 || (command == 0x90 && data2Of(event) == 0);
+    }
+
+}
@@ -1,7 +1,9 @@
 import java.awt.Color;
+import java.io.File;
+import java.net.InetSocketAddress;
 import java.util.HashMap;
+import java.util.List;
 import edu.macalester.graphics.*;
-import edu.macalester.graphics.events.Key;
 import edu.macalester.graphics.ui.Button;
 import edu.macalester.graphics.ui.TextField;
 import edu.macalester.graphics.Line;
@@ -11,34 +13,56 @@ public class MusicApp {
     private final Color GREEN = Color.decode("#CBDD5A");
     private final Color RED = Color.decode("#F95D69");
     private final Color BLUE = Color.decode("#ADECFF");
+    private final int OVERLAY_REFRESH_FRAMES = 15;
+    private final int[] VOLUME_STEPS = { MidiManager.DEFAULT_VOLUME, 70, 40, 127 };
+    private final int[] PAN_STEPS = { MidiManager.CENTER_PAN, 0, 127 };
+    private final String[] ARP_PATTERNS = { "up", "down", "up-down" };
 
     CanvasWindow canvas;
     MidiManager midiMan;
     KeyboardManager keyboard;
     GraphicsGroup instruments;
+    GraphicsGroup transforms;
     GraphicsGroup fileOptions;
     KeyboardLink keyboardLink;
+    InputHandler input;
     HashMap<Rectangle, Integer> trackRectangles;
+    GraphicsText[] mixLabels = new GraphicsText[4];
+    GraphicsText arpLabel;
     boolean pauseClicked = false;
-    int recordingTick;
+    volatile int recordingTick;
     Line progressBar;
-    int octave;
+    PianoRoll pianoRoll;
+    boolean rollShown = false;
+    LatencyOverlay latencyOverlay;
+    boolean overlayShown = false;
+    int frameCount;
 
     /**
      * Creates Music App
+     * 
+     * @param profile the audio profile the synthesizer is opened with
      */
-    public MusicApp() {
+    public MusicApp(AudioProfile profile) {
         recordingTick = 0;
-        octave = 0;
         canvas = new CanvasWindow("musicApp", 1050, 550);
-        midiMan = new MidiManager();
+        midiMan = new MidiManager(profile);
         keyboard = new KeyboardManager(canvas, midiMan);
         instruments = new GraphicsGroup();
+        transforms = new GraphicsGroup();
         fileOptions = new GraphicsGroup();
         trackRectangles = new HashMap<>();
         keyboardLink = new KeyboardLink(keyboard.getKeys());
+        input = new InputHandler(midiMan, keyboard, keyboardLink);
+        latencyOverlay = new LatencyOverlay(midiMan.getLatencyStats(), 100, 514);
+        progressBar = new Line(0, 0, 0, 250);
+        pianoRoll = new PianoRoll(midiMan, 4, progressBar, 0, 100, 1050, 250);
+        midiMan.setTickSource(() -> recordingTick);
+        midiMan.setNoteListener(keyboard::noteChanged);
         // canvas.setBackground(Color.decode("#5DC6E9"));
         setup();
+        if (midiMan.openJournal(new File("recording.journal")) > 0)
+            updateTrackRectangles();
     }
 
     /**
@@ -46,9 +70,13 @@ public class MusicApp {
      */
     public void setup() {
         instrumentMenu();
+        transformMenu();
         playbackSystem();
         setUpTrackRectangles();
         addingTracks();
+        latencyDisplay();
+        arpeggiatorControls();
+        pianoRollDisplay();
     }
 
     // ---------- Instrument Selection ----------------------------------------
@@ -77,19 +105,19 @@ public class MusicApp {
         instruments.add(synth);
 
         violin.onClick(() -> {
-            midiMan.selectInstrument(MidiManager.VIOLIN, recordingTick);
+            input.selectInstrument(MidiManager.VIOLIN, recordingTick);
             resetMenu(instrument);
         });
         piano.onClick(() -> {
-            midiMan.selectInstrument(MidiManager.PIANO, recordingTick);
+            input.selectInstrument(MidiManager.PIANO, recordingTick);
             resetMenu(instrument);
         });
         guitar.onClick(() -> {
-            midiMan.selectInstrument(MidiManager.GUITAR, recordingTick);
+            input.selectInstrument(MidiManager.GUITAR, recordingTick);
             resetMenu(instrument);
         });
         synth.onClick(() -> {
-            midiMan.selectInstrument(MidiManager.SYNTH, recordingTick);
+            input.selectInstrument(MidiManager.SYNTH, recordingTick);
             resetMenu(instrument);
         });
         instrument.onClick(() -> {
@@ -108,6 +136,39 @@ public class MusicApp {
         canvas.add(instrumentMenu);
     }
 
+    // ---------- Transforms --------------------------------------------------
+    /**
+     * Sets up the Transform Selection, which reshapes the whole recording or the notes played from now on
+     */
+    private void transformMenu() {
+        Button transform = new Button("Transforms");
+        transform.setPosition(840, 0);
+        canvas.add(transform);
+
+        String[] names = { "Quantize", "Octave Up", "Octave Down", "Humanize", "Soften", "Undo", "Live Quantize",
+            "Live Off" };
+        int[] presets = { InputHandler.QUANTIZE, InputHandler.OCTAVE_UP, InputHandler.OCTAVE_DOWN,
+            InputHandler.HUMANIZE, InputHandler.SOFTEN, InputHandler.UNDO_TRANSFORMS, InputHandler.LIVE_QUANTIZE,
+            InputHandler.LIVE_OFF };
+        double y = 0;
+        for (int i = 0; i < names.length; i++) {
+            int preset = presets[i];
+            Button option = new Button(names[i]);
+            option.setPosition(840, y);
+            y += option.getSize().getY();
+            transforms.add(option);
+            option.onClick(() -> {
+                input.transform(preset, recordingTick);
+                canvas.remove(transforms);
+                canvas.add(transform);
+            });
+        }
+        transform.onClick(() -> {
+            canvas.remove(transform);
+            canvas.add(transforms);
+        });
+    }
+
 
     // ---------- Playback and Recording --------------------------------------
     /**
@@ -138,11 +199,11 @@ public class MusicApp {
 
         play.onClick(() -> {
             pauseClicked = false;
-            midiMan.playSequence();
+            input.click(InputHandler.PLAY, recordingTick);
         });
         pause.onClick(() -> {
             pauseClicked = true;
-            midiMan.pauseSequence();
+            input.click(InputHandler.PAUSE, recordingTick);
         });
     }
 
@@ -161,15 +222,14 @@ public class MusicApp {
 
         recordButton.onClick(() -> {
             recordingTick = 0;
-            midiMan.clearTrack(midiMan.getActiveTrack());
-            midiMan.startRecording();
+            input.click(InputHandler.RECORD, recordingTick);
             for (HashMap.Entry<Rectangle, Integer> pair : trackRectangles.entrySet()) {
                 if (pair.getValue() == midiMan.getActiveTrack())
                     pair.getKey().setFillColor(RED);
             }
         });
         pauseButton.onClick(() -> {
-            midiMan.stopRecording();
+            input.click(InputHandler.STOP, recordingTick);
             for (HashMap.Entry<Rectangle, Integer> pair : trackRectangles.entrySet()) {
                 if (pair.getValue() == midiMan.getActiveTrack())
                     pair.getKey().setFillColor(GREEN);
@@ -178,17 +238,24 @@ public class MusicApp {
     }
 
     /**
-     * Saves the Music Project into a MIDI file that has a custom name
+     * Saves the Music Project into a MIDI file that has a custom name, or saves and opens it as a
+     * project file that keeps the instruments and active track
      * 
      * @param group GraphicsGroup that the Save Button will be placed in
      */
     private void saveSong(GraphicsGroup group) {
         TextField input = new TextField();
         Button save = new Button("Save");
+        Button saveProject = new Button("Save Project");
+        Button open = new Button("Open");
         input.setPosition(0, 4);
         save.setPosition(99, 0);
+        saveProject.setPosition(0, 30);
+        open.setPosition(saveProject.getSize().getX(), 30);
         canvas.add(input);
         canvas.add(save);
+        canvas.add(saveProject);
+        canvas.add(open);
 
         input.onChange(t -> {
             input.setText(t);
@@ -197,6 +264,13 @@ public class MusicApp {
             String songName = input.getText();
             midiMan.saveRecording(songName);
         });
+        saveProject.onClick(() -> {
+            midiMan.saveProject(input.getText());
+        });
+        open.onClick(() -> {
+            midiMan.openProject(input.getText());
+            updateTrackRectangles();
+        });
     }
 
     /**
@@ -210,7 +284,7 @@ public class MusicApp {
         skipToBeginning.setPosition(357, 0);
 
         skipToBeginning.onClick(() -> {
-            midiMan.setToStart();
+            input.click(InputHandler.BEGINNING, recordingTick);
         });
     }
 
@@ -240,19 +314,99 @@ public class MusicApp {
         int newTrackNumber = trackNumber + 1;
         GraphicsText trackNum = new GraphicsText("Track " + newTrackNumber);
         Button select = new Button("select");
-        trackNum.setCenter(width / 2, height * 0.3);
-        select.setCenter(width / 2, height * 0.65);
+        trackNum.setCenter(width / 2, height * 0.15);
+        select.setCenter(width / 2, height * 0.4);
         singularTrack.add(select);
         singularTrack.add(trackNum);
+        addMixer(singularTrack, width, height, trackNumber);
         singularTrack.setPosition(posX, posY);
         canvas.add(singularTrack);
 
         select.onClick(() -> {
-            midiMan.setActiveTrack(trackNumber);
+            input.selectTrack(trackNumber, recordingTick);
             updateTrackRectangles();
         });
     }
 
+    /**
+     * Adds the mute, solo, volume and pan buttons of a Track, which change its playback straight away
+     * without stopping it
+     * 
+     * @param group       the GraphicsGroup of the Track
+     * @param width       width of the Track
+     * @param height      height of the Track
+     * @param trackNumber Number that corresponds to the Track in the Sequence
+     */
+    private void addMixer(GraphicsGroup group, double width, double height, int trackNumber) {
+        Button mute = new Button("M");
+        Button solo = new Button("S");
+        Button volume = new Button("V");
+        Button pan = new Button("P");
+        mute.setCenter(width * 0.14, height * 0.7);
+        solo.setCenter(width * 0.38, height * 0.7);
+        volume.setCenter(width * 0.62, height * 0.7);
+        pan.setCenter(width * 0.86, height * 0.7);
+        mixLabels[trackNumber] = new GraphicsText("");
+        mixLabels[trackNumber].setFontSize(11);
+        group.add(mute);
+        group.add(solo);
+        group.add(volume);
+        group.add(pan);
+        group.add(mixLabels[trackNumber]);
+        updateMixLabel(trackNumber, width, height);
+
+        mute.onClick(() -> {
+            input.setMute(trackNumber, !midiMan.isTrackMuted(trackNumber), recordingTick);
+            updateMixLabel(trackNumber, width, height);
+        });
+        solo.onClick(() -> {
+            input.setSolo(trackNumber, !midiMan.isTrackSoloed(trackNumber), recordingTick);
+            updateMixLabel(trackNumber, width, height);
+        });
+        volume.onClick(() -> {
+            input.setVolume(trackNumber, nextStep(VOLUME_STEPS, midiMan.getTrackVolume(trackNumber)), recordingTick);
+            updateMixLabel(trackNumber, width, height);
+        });
+        pan.onClick(() -> {
+            input.setPan(trackNumber, nextStep(PAN_STEPS, midiMan.getTrackPan(trackNumber)), recordingTick);
+            updateMixLabel(trackNumber, width, height);
+        });
+    }
+
+    /**
+     * Updates the text under a Track's mixer buttons
+     * 
+     * @param trackNumber Number that corresponds to the Track in the Sequence
+     * @param width       width of the Track
+     * @param height      height of the Track
+     */
+    private void updateMixLabel(int trackNumber, double width, double height) {
+        int pan = midiMan.getTrackPan(trackNumber);
+        String panText = pan == MidiManager.CENTER_PAN ? "C" : pan < MidiManager.CENTER_PAN ? "L" : "R";
+        String text = "vol " + midiMan.getTrackVolume(trackNumber) + "  pan " + panText;
+        if (midiMan.isTrackMuted(trackNumber))
+            text += "  muted";
+        if (midiMan.isTrackSoloed(trackNumber))
+            text += "  solo";
+        mixLabels[trackNumber].setText(text);
+        mixLabels[trackNumber].setCenter(width / 2, height * 0.93);
+    }
+
+    /**
+     * Finds the step after the current value, going back to the first step after the last
+     * 
+     * @param steps   the values to step through
+     * @param current the current value
+     * @return the next value
+     */
+    private int nextStep(int[] steps, int current) {
+        for (int i = 0; i < steps.length; i++) {
+            if (steps[i] == current)
+                return steps[(i + 1) % steps.length];
+        }
+        return steps[0];
+    }
+
     /**
      * Sets up the Tracks Backgrounds
      */
@@ -290,67 +444,207 @@ public class MusicApp {
         }
     }
 
+    // ---------- Chord memory and arpeggiator --------------------------------
+    /**
+     * Sets up the buttons that remember a chord, start and stop the arpeggiator, and change its pattern
+     * and rate
+     */
+    private void arpeggiatorControls() {
+        Button arp = new Button("Arp");
+        Button chord = new Button("Chord");
+        Button pattern = new Button("Pattern");
+        Button rate = new Button("Rate");
+        arp.setPosition(0, 400);
+        chord.setPosition(0, 440);
+        pattern.setPosition(0, 360);
+        rate.setPosition(pattern.getSize().getX(), 360);
+        arpLabel = new GraphicsText("");
+        arpLabel.setFontSize(11);
+        arpLabel.setPosition(rate.getX() + rate.getSize().getX() + 5, 380);
+        canvas.add(arp);
+        canvas.add(chord);
+        canvas.add(pattern);
+        canvas.add(rate);
+        canvas.add(arpLabel);
+        updateArpLabel();
+
+        arp.onClick(() -> {
+            input.click(InputHandler.ARP, recordingTick);
+            updateArpLabel();
+        });
+        chord.onClick(() -> {
+            input.click(InputHandler.CHORD, recordingTick);
+            updateArpLabel();
+        });
+        pattern.onClick(() -> {
+            input.click(InputHandler.ARP_PATTERN, recordingTick);
+            updateArpLabel();
+        });
+        rate.onClick(() -> {
+            input.click(InputHandler.ARP_RATE, recordingTick);
+            updateArpLabel();
+        });
+    }
+
+    /**
+     * Updates the text next to the arpeggiator buttons
+     */
+    private void updateArpLabel() {
+        Arpeggiator arpeggiator = midiMan.getArpeggiator();
+        String text = ARP_PATTERNS[arpeggiator.getPattern()] + "  " + (int) arpeggiator.getRate() + "/s";
+        if (arpeggiator.isRunning())
+            text += "  on";
+        if (arpeggiator.hasChord())
+            text += "  chord";
+        arpLabel.setText(text);
+    }
+
+    // ---------- Piano roll ----------------------------------------------------
+    /**
+     * Sets up the button that shows the piano roll in place of the keyboard, and hides it again
+     */
+    private void pianoRollDisplay() {
+        Button roll = new Button("Roll");
+        roll.setPosition(0, 475);
+        canvas.add(roll);
+
+        roll.onClick(() -> {
+            rollShown = !rollShown;
+            if (rollShown) {
+                pianoRoll.invalidate();
+                pianoRoll.update();
+                canvas.add(pianoRoll);
+            } else {
+                canvas.remove(pianoRoll);
+            }
+        });
+    }
+
+    // ---------- Latency overlay ---------------------------------------------
+    /**
+     * Sets up the button that shows and hides the latency overlay
+     */
+    private void latencyDisplay() {
+        Button latency = new Button("Latency");
+        latency.setPosition(0, 510);
+        canvas.add(latency);
+
+        latency.onClick(() -> {
+            overlayShown = !overlayShown;
+            if (overlayShown) {
+                latencyOverlay.update();
+                canvas.add(latencyOverlay);
+            } else {
+                canvas.remove(latencyOverlay);
+            }
+        });
+    }
+
     // ------------------------------------------------------------------------
 
     /**
      * Runs the Music App and handles mouse and keyboard interactions
+     * 
+     * @param inputLog the log to record every input event to, or null to not record input
      */
-    private void run() {
+    private void run(InputLog inputLog) {
+        input.setLog(inputLog);
+
         canvas.onMouseDown(event -> {
-            for (PlayableKey key : keyboard.getKeys()) {
-                if (key.testHit(event.getPosition(), canvas)) {
-                    key.play(recordingTick);
+            midiMan.getLatencyStats().markInput();
+            List<PlayableKey> keys = keyboard.getKeys();
+            for (int i = 0; i < keys.size(); i++) {
+                if (keys.get(i).testHit(event.getPosition(), canvas)) {
+                    input.mouseDown(i, recordingTick);
                 }
             }
         });
 
         canvas.onMouseUp(event -> {
-            for (PlayableKey key : keyboard.getKeys()) {
-                if (key.testHit(event.getPosition(), canvas)) {
-                    key.stop(recordingTick);
+            List<PlayableKey> keys = keyboard.getKeys();
+            for (int i = 0; i < keys.size(); i++) {
+                if (keys.get(i).testHit(event.getPosition(), canvas)) {
+                    input.mouseUp(i, recordingTick);
                 }
             }
         });
 
         canvas.onKeyDown(event -> {
-            Key pressedKey = event.getKey();
-            if (pressedKey.equals(Key.UP_ARROW)) {
-                octave++;
-                keyboard.clearKeyText();
-                keyboardLink.makeKeyMap(keyboard.getKeys(), octave);
-            }
-            if (pressedKey.equals(Key.DOWN_ARROW)) {
-                octave--;
-                keyboard.clearKeyText();
-                keyboardLink.makeKeyMap(keyboard.getKeys(), octave);
-            }
-            if (KeyboardLink.KEY_LIST.contains(pressedKey)) {
-                PlayableKey key = keyboardLink.getKeyMap().get(pressedKey);
-                if (key != null)
-                    key.play(recordingTick);
-            }
+            midiMan.getLatencyStats().markInput();
+            input.keyDown(event.getKey(), recordingTick);
         });
 
         canvas.onKeyUp(event -> {
-            Key pressedKey = event.getKey();
-            if (KeyboardLink.KEY_LIST.contains(pressedKey)) {
-                PlayableKey key = keyboardLink.getKeyMap().get(pressedKey);
-                if (key != null)
-                    key.stop(recordingTick);
-            }
+            input.keyUp(event.getKey(), recordingTick);
         });
 
         canvas.animate(() -> {
             if (midiMan.isRecording())
                 recordingTick += 1;
+            midiMan.checkAudio();
+            keyboard.refreshHighlights();
+            if (rollShown)
+                pianoRoll.update();
+            frameCount++;
+            if (overlayShown && frameCount % OVERLAY_REFRESH_FRAMES == 0)
+                latencyOverlay.update();
         });
 
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            midiMan.getLatencyStats().writeCsv(new File("latency.csv"));
+            if (midiMan.getJamReport() != null)
+                System.out.println(midiMan.getJamReport());
+            if (inputLog != null)
+                inputLog.close();
+            midiMan.close(); // forces the journal to disk and stops the jam link and the MIDI inputs
+        }));
+
     }
 
 
     public static void main(String[] args) {
-        MusicApp musicApp = new MusicApp();
-        musicApp.run();
+        AudioProfile profile = AudioProfile.BALANCED;
+        InputLog inputLog = null;
+        int jamPort = -1;
+        InetSocketAddress jamPeer = null;
+        int jamTrack = -1;
+        double jitterMs = 0;
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("--audio")) {
+                profile = AudioProfile.valueOf(args[i + 1].toUpperCase());
+            }
+            if (args[i].equals("--record-input")) {
+                try {
+                    inputLog = new InputLog(new File(args[i + 1]));
+                } catch (Exception e) {
+                    System.out.println(e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+            if (args[i].equals("--jam") && i + 2 < args.length) {
+                jamPort = Integer.parseInt(args[i + 1]);
+                String[] peer = args[i + 2].split(":");
+                jamPeer = new InetSocketAddress(peer[0], Integer.parseInt(peer[1]));
+            }
+            if (args[i].equals("--jam-track")) {
+                jamTrack = Integer.parseInt(args[i + 1]) - 1;
+            }
+            if (args[i].equals("--jitter")) {
+                jitterMs = Double.parseDouble(args[i + 1]);
+            }
+        }
+        MusicApp musicApp = new MusicApp(profile);
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--midi-in"))
+                musicApp.midiMan.openInputDevices();
+            if (args[i].equals("--stem-spill") && i + 1 < args.length)
+                musicApp.midiMan.setStemSpill(new File(args[i + 1]));
+        }
+        if (jamPeer != null) {
+            musicApp.midiMan.setJamTrack(jamTrack);
+            musicApp.midiMan.startJam(jamPort, jamPeer, jitterMs);
+        }
+        musicApp.run(inputLog);
     }
 }
 
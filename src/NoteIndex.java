@@ -0,0 +1,236 @@
+import java.util.Arrays;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+public class NoteIndex {
+    public final static long OPEN = -1;
+
+    private final static int BUCKET_TICKS = 64;
+
+    /**
+     * Is shown each note that a query finds
+     */
+    public interface Visitor {
+        /**
+         * Called for each note found, while the index is locked, so it should only copy what it needs
+         *
+         * @param id    the note's number in the index, which stays the same until the index is cleared
+         * @param pitch int representing the midi note value
+         * @param start the tick the note starts at
+         * @param end   the tick the note stops at, or NoteIndex.OPEN if it is still sounding
+         */
+        void visit(int id, int pitch, long start, long end);
+    }
+
+    private int[] pitches;
+    private long[] starts;
+    private long[] ends;
+    private int size;
+
+    private int[][] buckets;
+    private int[] bucketSizes;
+    private int[] openNotes;
+    private int generation;
+
+    /**
+     * Creates an empty index of the notes in a track, pairing each note on with the note off that stops
+     * it. Finished notes are kept in buckets of 64 ticks, with a note that is longer than a bucket listed
+     * in every bucket it covers, so finding the notes in a window of time only looks at the buckets the
+     * window covers, however many notes there are in total
+     */
+    public NoteIndex() {
+        pitches = new int[256];
+        starts = new long[256];
+        ends = new long[256];
+        buckets = new int[64][];
+        bucketSizes = new int[64];
+        openNotes = new int[128];
+        clear();
+    }
+
+    /**
+     * Adds an event to the index if it starts or stops a note. Events are expected in the order of
+     * their ticks, as they are when recording
+     *
+     * @param msg  the message of the event
+     * @param tick the tick of the event
+     */
+    public synchronized void add(MidiMessage msg, long tick) {
+        if (!(msg instanceof ShortMessage)) {
+            return;
+        }
+        ShortMessage shortMsg = (ShortMessage) msg;
+        int command = shortMsg.getCommand();
+        int pitch = shortMsg.getData1();
+        if (command == ShortMessage.NOTE_ON && shortMsg.getData2() > 0) {
+            close(pitch, tick); // a note played again before it was stopped
+            openNotes[pitch] = size;
+            append(pitch, tick);
+        } else if (command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF) {
+            close(pitch, tick);
+        }
+    }
+
+    /**
+     * Empties the index and fills it again from every event in a track, for after a track has been
+     * changed all at once
+     *
+     * @param track the track to index
+     */
+    public synchronized void rebuild(Track track) {
+        clear();
+        for (int i = 0; i < track.size(); i++) {
+            MidiEvent event = track.get(i);
+            add(event.getMessage(), event.getTick());
+        }
+    }
+
+    /**
+     * Empties the index
+     */
+    public synchronized void clear() {
+        size = 0;
+        Arrays.fill(bucketSizes, 0);
+        Arrays.fill(openNotes, -1);
+        generation++;
+    }
+
+    /**
+     * Finds every note that sounds at some point between two ticks, including notes still sounding
+     *
+     * @param from    the first tick of the window
+     * @param to      the tick just after the window
+     * @param visitor is shown each note found
+     * @return the number of notes in the index, so later notes can be found with visitSince
+     */
+    public synchronized int query(long from, long to, Visitor visitor) {
+        int firstBucket = (int) (from / BUCKET_TICKS);
+        int lastBucket = (int) Math.min((to - 1) / BUCKET_TICKS, buckets.length - 1);
+        for (int b = firstBucket; b <= lastBucket; b++) {
+            for (int i = 0; i < bucketSizes[b]; i++) {
+                int id = buckets[b][i];
+                // a note is listed in every bucket it covers, so only report it from the first one in the window
+                if (b != firstBucket && starts[id] / BUCKET_TICKS != b) {
+                    continue;
+                }
+                if (starts[id] < to && Math.max(ends[id], starts[id] + 1) > from) {
+                    visitor.visit(id, pitches[id], starts[id], ends[id]);
+                }
+            }
+        }
+        for (int pitch = 0; pitch < openNotes.length; pitch++) {
+            int id = openNotes[pitch];
+            if (id >= 0 && starts[id] < to) {
+                visitor.visit(id, pitch, starts[id], OPEN);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Finds the notes added since an earlier query that sound at some point between two ticks
+     *
+     * @param firstId the number of notes in the index when it was last queried
+     * @param from    the first tick of the window
+     * @param to      the tick just after the window
+     * @param visitor is shown each note found
+     * @return the number of notes in the index now
+     */
+    public synchronized int visitSince(int firstId, long from, long to, Visitor visitor) {
+        for (int id = firstId; id < size; id++) {
+            long end = openNotes[pitches[id]] == id ? OPEN : ends[id];
+            if (starts[id] < to && (end == OPEN || Math.max(end, starts[id] + 1) > from)) {
+                visitor.visit(id, pitches[id], starts[id], end);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Gets the tick a note stops at
+     *
+     * @param id the note's number in the index
+     * @return the tick the note stops at, NoteIndex.OPEN if it is still sounding, or 0 if there is no
+     *         such note any more
+     */
+    public synchronized long getEnd(int id) {
+        if (id >= size) {
+            return 0;
+        }
+        return openNotes[pitches[id]] == id ? OPEN : ends[id];
+    }
+
+    /**
+     * @return the number of notes in the index
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets a number that changes every time the index is emptied, which invalidates the numbers of its
+     * notes
+     *
+     * @return the generation of the index
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Adds a note that has started, growing the arrays when they are full
+     */
+    private void append(int pitch, long start) {
+        if (size == pitches.length) {
+            pitches = Arrays.copyOf(pitches, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        pitches[size] = pitch;
+        starts[size] = start;
+        ends[size] = OPEN;
+        size++;
+    }
+
+    /**
+     * Stops the note sounding at a pitch, if there is one, and lists it in the buckets it covers
+     */
+    private void close(int pitch, long end) {
+        int id = openNotes[pitch];
+        if (id < 0) {
+            return;
+        }
+        openNotes[pitch] = -1;
+        ends[id] = Math.max(end, starts[id]);
+        int first = (int) (starts[id] / BUCKET_TICKS);
+        int last = (int) (Math.max(ends[id] - 1, starts[id]) / BUCKET_TICKS);
+        for (int b = first; b <= last; b++) {
+            addToBucket(b, id);
+        }
+    }
+
+    /**
+     * Lists a note in a bucket, growing the bucket or the list of buckets when needed
+     */
+    private void addToBucket(int b, int id) {
+        if (b >= buckets.length) {
+            int count = Math.max(buckets.length * 2, b + 1);
+            buckets = Arrays.copyOf(buckets, count);
+            bucketSizes = Arrays.copyOf(bucketSizes, count);
+        }
+        if (buckets[b] == null) {
+            buckets[b] = new int[8];
+        } else if (bucketSizes[b] == buckets[b].length) {
+            buckets[b] = Arrays.copyOf(buckets[b], bucketSizes[b] * 2);
+        }
+        buckets[b][bucketSizes[b]++] = id;
+    }
+
+}
@@ -0,0 +1,46 @@
+import java.util.Arrays;
+
+public class PackedTrack {
+    private final static int INITIAL_CAPACITY = 256;
+
+    private long[] events;
+    private int size;
+
+    /**
+     * Creates an empty growable list of packed events, used to keep the raw input of a track so that
+     * transforms can always be applied to, or undone from, what was actually played
+     */
+    public PackedTrack() {
+        events = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Appends one packed event
+     *
+     * @param event the packed event
+     */
+    public synchronized void add(long event) {
+        if (size == events.length) {
+            events = Arrays.copyOf(events, size * 2);
+        }
+        events[size++] = event;
+    }
+
+    /**
+     * Copies the events out, so they can be transformed while more are being added
+     *
+     * @return the packed events in the order they were added
+     */
+    public synchronized long[] toArray() {
+        return Arrays.copyOf(events, size);
+    }
+
+    /**
+     * @return the number of events in the track
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,261 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.macalester.graphics.*;
+
+public class PianoRoll extends GraphicsGroup {
+    private static final int LOWEST_PITCH = 36;
+    private static final int HIGHEST_PITCH = 96;
+    private static final long PAGE_TICKS = 600; // 10 seconds at 60 ticks per second
+    private static final Color[] TRACK_COLORS = { Color.decode("#3A8FB7"), Color.decode("#E07A5F"),
+        Color.decode("#81B29A"), Color.decode("#9C6ADE") };
+
+    private MidiManager midiMan;
+    private int numTracks;
+    private double width;
+    private double height;
+    private double rowHeight;
+    private double pixelsPerTick;
+    private Line playhead;
+
+    private List<Rectangle> pool;
+    private int used;
+    private int shown;
+    private long pageStart;
+    private int[] generations;
+    private int[] drawnCounts;
+
+    private int[] growingRects;
+    private int[] growingTracks;
+    private int[] growingIds;
+    private int growingCount;
+
+    private int foundCount;
+    private int[] foundIds;
+    private int[] foundPitches;
+    private long[] foundStarts;
+    private long[] foundEnds;
+    private NoteIndex.Visitor collector;
+
+    /**
+     * Piano roll of every track, showing one page of ten seconds at a time with a playhead. The notes
+     * on a page are laid out once when the playhead reaches it; after that, notes recorded onto the page
+     * are added one at a time and only notes still being held are stretched, so each frame costs the
+     * same however many notes the tracks hold
+     *
+     * @param midiMan   the MidiManager whose tracks are shown
+     * @param numTracks the number of tracks
+     * @param playhead  the line that is moved along with the current tick
+     * @param posX      X position of the piano roll
+     * @param posY      Y position of the piano roll
+     * @param width     width of the piano roll
+     * @param height    height of the piano roll
+     */
+    public PianoRoll(MidiManager midiMan, int numTracks, Line playhead, double posX, double posY, double width,
+        double height) {
+        this.midiMan = midiMan;
+        this.numTracks = numTracks;
+        this.width = width;
+        this.height = height;
+        this.playhead = playhead;
+        rowHeight = height / (HIGHEST_PITCH - LOWEST_PITCH + 1);
+        pixelsPerTick = width / PAGE_TICKS;
+
+        Rectangle background = new Rectangle(0, 0, width, height);
+        background.setFillColor(Color.WHITE);
+        background.setStrokeColor(Color.decode("#DADADA"));
+        this.add(background);
+        for (int pitch = LOWEST_PITCH; pitch <= HIGHEST_PITCH; pitch++) {
+            if (pitch % 12 == 0) {
+                Line octave = new Line(0, rowOf(pitch) + rowHeight, width, rowOf(pitch) + rowHeight);
+                octave.setStrokeColor(Color.decode("#EEEEEE"));
+                this.add(octave);
+            }
+        }
+        playhead.setStrokeColor(Color.decode("#F95D69"));
+        playhead.setStrokeWidth(2);
+        this.add(playhead);
+        this.setPosition(posX, posY);
+
+        pool = new ArrayList<>();
+        used = 0;
+        shown = 0;
+        pageStart = -1;
+        generations = new int[numTracks];
+        drawnCounts = new int[numTracks];
+        growingRects = new int[64];
+        growingTracks = new int[64];
+        growingIds = new int[64];
+        growingCount = 0;
+        foundIds = new int[256];
+        foundPitches = new int[256];
+        foundStarts = new long[256];
+        foundEnds = new long[256];
+        collector = this::collect;
+    }
+
+    /**
+     * Brings the piano roll up to date with the tracks and the current tick. Meant to be called on
+     * every frame while the piano roll is shown
+     */
+    public void update() {
+        long tick = midiMan.getPlayheadTick();
+        long page = tick / PAGE_TICKS * PAGE_TICKS;
+        boolean relayout = page != pageStart;
+        for (int t = 0; t < numTracks; t++) {
+            if (midiMan.getNoteIndex(t).getGeneration() != generations[t]) {
+                relayout = true;
+            }
+        }
+
+        if (relayout) {
+            layoutPage(page, tick);
+        } else {
+            for (int t = 0; t < numTracks; t++) {
+                foundCount = 0;
+                drawnCounts[t] = midiMan.getNoteIndex(t).visitSince(drawnCounts[t], pageStart, pageStart + PAGE_TICKS,
+                    collector);
+                drawFound(t, tick);
+            }
+        }
+        stretchHeldNotes(tick);
+
+        double x = (tick - pageStart) * pixelsPerTick;
+        playhead.setStartPosition(x, 0);
+        playhead.setEndPosition(x, height);
+    }
+
+    /**
+     * Makes the piano roll lay every note out again on the next update, for when it has been hidden
+     */
+    public void invalidate() {
+        pageStart = -1;
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Lays out every note that sounds on a page, reusing the rectangles of the previous page
+     */
+    private void layoutPage(long page, long tick) {
+        pageStart = page;
+        used = 0;
+        growingCount = 0;
+        for (int t = 0; t < numTracks; t++) {
+            NoteIndex index = midiMan.getNoteIndex(t);
+            generations[t] = index.getGeneration();
+            foundCount = 0;
+            drawnCounts[t] = index.query(pageStart, pageStart + PAGE_TICKS, collector);
+            drawFound(t, tick);
+        }
+        for (int i = used; i < shown; i++) {
+            this.remove(pool.get(i));
+        }
+        shown = used;
+        while (pool.size() > used * 2 + 64) {
+            pool.remove(pool.size() - 1); // let a page with fewer notes give back what a busy one needed
+        }
+    }
+
+    /**
+     * Copies a note found by the index, while the index is locked
+     */
+    private void collect(int id, int pitch, long start, long end) {
+        if (foundCount == foundIds.length) {
+            foundIds = Arrays.copyOf(foundIds, foundCount * 2);
+            foundPitches = Arrays.copyOf(foundPitches, foundCount * 2);
+            foundStarts = Arrays.copyOf(foundStarts, foundCount * 2);
+            foundEnds = Arrays.copyOf(foundEnds, foundCount * 2);
+        }
+        foundIds[foundCount] = id;
+        foundPitches[foundCount] = pitch;
+        foundStarts[foundCount] = start;
+        foundEnds[foundCount] = end;
+        foundCount++;
+    }
+
+    /**
+     * Draws the notes that were found, once the index has been unlocked
+     */
+    private void drawFound(int track, long tick) {
+        for (int i = 0; i < foundCount; i++) {
+            int rect = used++;
+            if (rect == pool.size()) {
+                Rectangle created = new Rectangle(0, 0, 1, 1);
+                created.setStroked(false);
+                pool.add(created);
+            }
+            Rectangle note = pool.get(rect);
+            if (rect >= shown) {
+                this.add(note);
+                shown = rect + 1;
+            }
+            note.setFillColor(TRACK_COLORS[track % TRACK_COLORS.length]);
+            long end = foundEnds[i] == NoteIndex.OPEN ? tick : foundEnds[i];
+            placeNote(note, foundPitches[i], foundStarts[i], end);
+            if (foundEnds[i] == NoteIndex.OPEN) {
+                addHeldNote(rect, track, foundIds[i]);
+            }
+        }
+    }
+
+    /**
+     * Stretches the notes still being held up to the current tick, and stops tracking those that have
+     * been released
+     */
+    private void stretchHeldNotes(long tick) {
+        for (int i = growingCount - 1; i >= 0; i--) {
+            Rectangle note = pool.get(growingRects[i]);
+            long end = midiMan.getNoteIndex(growingTracks[i]).getEnd(growingIds[i]);
+            if (end != NoteIndex.OPEN) {
+                growingCount--;
+                growingRects[i] = growingRects[growingCount];
+                growingTracks[i] = growingTracks[growingCount];
+                growingIds[i] = growingIds[growingCount];
+            } else {
+                end = tick;
+            }
+            double left = note.getX();
+            double right = Math.min((end - pageStart) * pixelsPerTick, width);
+            note.setSize(Math.max(right - left, 1), rowHeight);
+        }
+    }
+
+    /**
+     * Remembers that a rectangle shows a note that is still being held
+     */
+    private void addHeldNote(int rect, int track, int id) {
+        if (growingCount == growingRects.length) {
+            growingRects = Arrays.copyOf(growingRects, growingCount * 2);
+            growingTracks = Arrays.copyOf(growingTracks, growingCount * 2);
+            growingIds = Arrays.copyOf(growingIds, growingCount * 2);
+        }
+        growingRects[growingCount] = rect;
+        growingTracks[growingCount] = track;
+        growingIds[growingCount] = id;
+        growingCount++;
+    }
+
+    /**
+     * Moves and sizes a rectangle to show a note, cut off at the edges of the page
+     */
+    private void placeNote(Rectangle note, int pitch, long start, long end) {
+        double left = Math.max(start - pageStart, 0) * pixelsPerTick;
+        double right = Math.min((end - pageStart) * pixelsPerTick, width);
+        note.setPosition(left, rowOf(pitch));
+        note.setSize(Math.max(right - left, 1), rowHeight);
+    }
+
+    /**
+     * Finds the top of the row a pitch is drawn in, with pitches outside the roll drawn at its edges
+     */
+    private double rowOf(int pitch) {
+        int clamped = Math.max(LOWEST_PITCH, Math.min(HIGHEST_PITCH, pitch));
+        return (HIGHEST_PITCH - clamped) * rowHeight;
+    }
+
+}
@@ -8,6 +8,7 @@ public abstract class PlayableKey extends GraphicsGroup {
     private GraphicsText keyText;
 
     private boolean pressed;
+    private boolean highlighted;
     private int pitch;
 
     private Color upColor;
@@ -24,6 +25,7 @@ public abstract class PlayableKey extends GraphicsGroup {
      */
     public PlayableKey(MidiManager midiManager, double posX, double posY, double width, double height) {
         pressed = false;
+        highlighted = false;
         pitch = -1;
         this.midiManager = midiManager;
         key = new Rectangle(posX, posY, width, height);
@@ -57,6 +59,13 @@ public abstract class PlayableKey extends GraphicsGroup {
         this.pitch = pitch;
     }
 
+    /**
+     * @return the Midi pitch the key plays
+     */
+    public int getPitch() {
+        return pitch;
+    }
+
     /**
      * Sets the color of the Music Key
      * 
@@ -109,7 +118,8 @@ public abstract class PlayableKey extends GraphicsGroup {
      */
     public void play(int tick) {
         if (!pressed) {
-            midiManager.playPitch(pitch, tick);
+            midiManager.getLatencyStats().markKey();
+            midiManager.pressKey(pitch, tick);
             pressed = true;
             key.setFillColor(downColor);
         }
@@ -122,10 +132,21 @@ public abstract class PlayableKey extends GraphicsGroup {
      */
     public void stop(int tick) {
         if (pressed) {
-            midiManager.stopPitch(pitch, tick);
+            midiManager.releaseKey(pitch, tick);
             pressed = false;
-            key.setFillColor(upColor);
+            key.setFillColor(highlighted ? downColor : upColor);
         }
     }
 
+    /**
+     * Shows the key as held down while its pitch is being played from somewhere other than this key,
+     * such as an external MIDI controller
+     * 
+     * @param highlighted whether the key's pitch is being played
+     */
+    public void setHighlighted(boolean highlighted) {
+        this.highlighted = highlighted;
+        key.setFillColor(pressed || highlighted ? downColor : upColor);
+    }
+
 }
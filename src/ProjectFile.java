@@ -0,0 +1,400 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+public class ProjectFile {
+    public final static String EXTENSION = ".skproj";
+
+    private final static int MAGIC = 0x534B504A;
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 32; // magic, version, track count, active track, division, resolution, crc
+    private final static int HEADER_CRC = 24; // covers the rest of the header and the whole directory
+    private final static int ENTRY_SIZE = 32; // offset, stored and raw length, event count, last tick, crc, instrument, flags
+    private final static int COMPRESSED = 1;
+    private final static int MAX_TRACKS = 16; // as many as there are MIDI channels
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int numTracks;
+    private int activeTrack;
+    private float divisionType;
+    private int resolution;
+
+    /**
+     * Opens a project file by memory-mapping it, and checks its whole header and track directory, so a
+     * damaged file is rejected before anything is taken from it. The tracks themselves aren't read until
+     * decodeTrack is called for them, which checks each one's own checksum
+     *
+     * @param file the project file to open
+     * @throws IOException if the file can't be read, isn't a project file or is damaged
+     */
+    public ProjectFile(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        try {
+            checkHeader();
+        } catch (IOException e) {
+            close();
+            throw new IOException(file + ": " + e.getMessage());
+        }
+        numTracks = buffer.getInt(8);
+        activeTrack = buffer.getInt(12);
+        divisionType = buffer.getFloat(16);
+        resolution = buffer.getInt(20);
+    }
+
+    /**
+     * @return the number of tracks in the project
+     */
+    public int getNumTracks() {
+        return numTracks;
+    }
+
+    /**
+     * @return the index of the track that was active when the project was saved
+     */
+    public int getActiveTrack() {
+        return activeTrack;
+    }
+
+    /**
+     * @return the division type of the project's sequence, such as Sequence.SMPTE_30
+     */
+    public float getDivisionType() {
+        return divisionType;
+    }
+
+    /**
+     * @return the resolution of the project's sequence
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Gets the instrument a track had selected when the project was saved
+     *
+     * @param track the index of the track
+     * @return int representing the instrument in general MIDI
+     */
+    public int getInstrument(int track) {
+        return buffer.get(entry(track) + 28) & 0xFF;
+    }
+
+    /**
+     * Gets the number of events in a track, without decoding it
+     *
+     * @param track the index of the track
+     * @return the number of events stored for the track
+     */
+    public int getEventCount(int track) {
+        return buffer.getInt(entry(track) + 16);
+    }
+
+    /**
+     * Gets the tick of the last event in a track, without decoding it
+     *
+     * @param track the index of the track
+     * @return the tick of the track's last event, or 0 if it has none
+     */
+    public long getLastTick(int track) {
+        return buffer.getInt(entry(track) + 20) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Decodes the events of one track, checking its checksum and inflating it if it was compressed
+     *
+     * @param track the index of the track
+     * @return the events of the track, in order
+     * @throws IOException if the track's block is damaged
+     */
+    public List<MidiEvent> decodeTrack(int track) throws IOException {
+        int entry = entry(track);
+        long offset = buffer.getLong(entry);
+        int storedLength = buffer.getInt(entry + 8);
+        int rawLength = buffer.getInt(entry + 12);
+        int eventCount = buffer.getInt(entry + 16);
+        int checksum = buffer.getInt(entry + 24);
+        boolean compressed = (buffer.get(entry + 29) & COMPRESSED) != 0;
+        if (offset < 0 || offset + storedLength > buffer.capacity()) {
+            throw new IOException("track " + track + " is outside the file");
+        }
+
+        byte[] stored = new byte[storedLength];
+        buffer.get((int) offset, stored);
+        CRC32 crc = new CRC32();
+        crc.update(stored);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("track " + track + " failed its checksum");
+        }
+        byte[] raw = stored;
+        if (compressed) {
+            raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(stored);
+                if (inflater.inflate(raw) != rawLength) {
+                    throw new IOException("track " + track + " is shorter than its directory says");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("track " + track + " can't be decompressed", e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        List<MidiEvent> events = new ArrayList<>(eventCount);
+        ByteBuffer block = ByteBuffer.wrap(raw);
+        long tick = 0;
+        try {
+            for (int i = 0; i < eventCount; i++) {
+                tick += readVarInt(block);
+                ShortMessage msg = new ShortMessage(block.get() & 0xFF, block.get() & 0xFF, block.get() & 0xFF);
+                events.add(new MidiEvent(msg, tick));
+            }
+        } catch (Exception e) {
+            throw new IOException("track " + track + " has a damaged event", e);
+        }
+        return events;
+    }
+
+    /**
+     * Closes the file and drops the mapping. Java can't unmap a file directly, so the mapping itself is
+     * released once the garbage collector frees it; the project can't be read after this
+     */
+    public void close() {
+        buffer = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a project file with a header, a directory of tracks, and one block of packed events per
+     * track. Each event is stored as its tick's distance from the previous event followed by its three
+     * message bytes; blocks are deflated when that makes them smaller and compress is set. The project
+     * is written to a temporary file next to the target and forced to disk before it is moved over the
+     * target, so a crash while saving leaves the previous project as it was
+     *
+     * @param file         the file to write to
+     * @param tracks       the tracks of the sequence
+     * @param instruments  the instrument selected for each track
+     * @param activeTrack  the index of the active track
+     * @param divisionType the division type of the sequence
+     * @param resolution   the resolution of the sequence
+     * @param compress     whether to try compressing each track's block
+     * @return the number of bytes written
+     * @throws IOException if the file can't be written
+     */
+    public static long write(File file, Track[] tracks, int[] instruments, int activeTrack, float divisionType,
+        int resolution, boolean compress) throws IOException {
+        byte[][] blocks = new byte[tracks.length][];
+        int[] rawLengths = new int[tracks.length];
+        int[] eventCounts = new int[tracks.length];
+        long[] lastTicks = new long[tracks.length];
+        boolean[] compressed = new boolean[tracks.length];
+        for (int i = 0; i < tracks.length; i++) {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            long previousTick = 0;
+            for (int j = 0; j < tracks[i].size(); j++) {
+                MidiEvent event = tracks[i].get(j);
+                MidiMessage msg = event.getMessage();
+                if (!(msg instanceof ShortMessage)) {
+                    continue; // the end of track meta event is added back by the Track itself
+                }
+                ShortMessage shortMsg = (ShortMessage) msg;
+                writeVarInt(raw, event.getTick() - previousTick);
+                raw.write(shortMsg.getStatus());
+                raw.write(shortMsg.getData1());
+                raw.write(shortMsg.getData2());
+                previousTick = event.getTick();
+                eventCounts[i]++;
+            }
+            blocks[i] = raw.toByteArray();
+            rawLengths[i] = blocks[i].length;
+            lastTicks[i] = previousTick;
+            if (compress && blocks[i].length > 0) {
+                byte[] deflated = deflate(blocks[i]);
+                if (deflated.length < blocks[i].length) {
+                    blocks[i] = deflated;
+                    compressed[i] = true;
+                }
+            }
+        }
+
+        long offset = HEADER_SIZE + (long) tracks.length * ENTRY_SIZE;
+        ByteBuffer header = ByteBuffer.allocate((int) offset);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(tracks.length);
+        header.putInt(activeTrack);
+        header.putFloat(divisionType);
+        header.putInt(resolution);
+        header.position(HEADER_SIZE);
+        for (int i = 0; i < tracks.length; i++) {
+            CRC32 crc = new CRC32();
+            crc.update(blocks[i]);
+            header.putLong(offset);
+            header.putInt(blocks[i].length);
+            header.putInt(rawLengths[i]);
+            header.putInt(eventCounts[i]);
+            header.putInt((int) lastTicks[i]);
+            header.putInt((int) crc.getValue());
+            header.put((byte) instruments[i]);
+            header.put((byte) (compressed[i] ? COMPRESSED : 0));
+            header.putShort((short) 0);
+            offset += blocks[i].length;
+        }
+        header.putInt(HEADER_CRC, headerChecksum(header));
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(header.array());
+                for (byte[] block : blocks) {
+                    out.write(block);
+                }
+                out.getFD().sync();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete(); // only still there if the project couldn't be written or moved
+        }
+        return offset;
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Checks everything in the header and directory that the rest of the class relies on: the magic
+     * number and version, that the track count and active track are in range, the header's checksum,
+     * and that every track's block lies within the file with sensible lengths, counts and instrument
+     */
+    private void checkHeader() throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a project file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("unsupported project version " + version);
+        }
+        int tracks = buffer.getInt(8);
+        if (tracks < 1 || tracks > MAX_TRACKS) {
+            throw new IOException("bad track count " + tracks);
+        }
+        long directoryEnd = HEADER_SIZE + (long) tracks * ENTRY_SIZE;
+        if (buffer.capacity() < directoryEnd) {
+            throw new IOException("truncated track directory");
+        }
+        if (buffer.getInt(HEADER_CRC) != headerChecksum(buffer)) {
+            throw new IOException("header failed its checksum");
+        }
+        int active = buffer.getInt(12);
+        if (active < 0 || active >= tracks) {
+            throw new IOException("active track " + active + " is out of range");
+        }
+        float division = buffer.getFloat(16);
+        if (!(division >= 0) || buffer.getInt(20) <= 0) {
+            throw new IOException("bad timing");
+        }
+        for (int i = 0; i < tracks; i++) {
+            int entry = HEADER_SIZE + i * ENTRY_SIZE;
+            long offset = buffer.getLong(entry);
+            int storedLength = buffer.getInt(entry + 8);
+            int rawLength = buffer.getInt(entry + 12);
+            int flags = buffer.get(entry + 29);
+            if (offset < directoryEnd || storedLength < 0 || offset + storedLength > buffer.capacity()
+                || rawLength < 0 || buffer.getInt(entry + 16) < 0 || (buffer.get(entry + 28) & 0x80) != 0
+                || (flags & ~COMPRESSED) != 0 || ((flags & COMPRESSED) == 0 && rawLength != storedLength)) {
+                throw new IOException("track " + i + " has a damaged directory entry");
+            }
+        }
+    }
+
+    /**
+     * Computes the checksum of a header and directory, leaving out the checksum itself and the reserved
+     * bytes after it
+     */
+    private static int headerChecksum(ByteBuffer header) {
+        int tracks = header.getInt(8);
+        CRC32 crc = new CRC32();
+        crc.update(header.duplicate().position(0).limit(HEADER_CRC));
+        crc.update(header.duplicate().position(HEADER_SIZE).limit(HEADER_SIZE + tracks * ENTRY_SIZE));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Finds where a track's entry starts in the directory
+     */
+    private int entry(int track) {
+        if (track < 0 || track >= numTracks) {
+            throw new IndexOutOfBoundsException();
+        }
+        return HEADER_SIZE + track * ENTRY_SIZE;
+    }
+
+    /**
+     * Deflates a whole block
+     */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a non-negative number 7 bits at a time, lowest bits first, with the top bit of each byte set
+     * when more bytes follow
+     */
+    private static void writeVarInt(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads a number written by writeVarInt
+     */
+    private static long readVarInt(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+}
@@ -0,0 +1,38 @@
+public class QuantizeTransform implements MidiTransform {
+    private int grid;
+    private long[] shifts;
+
+    /**
+     * Transform that moves the start of every note to the nearest multiple of a grid, moving its end by
+     * the same amount so the note keeps its length
+     *
+     * @param grid the spacing of the grid in ticks
+     */
+    public QuantizeTransform(int grid) {
+        if (grid < 1) {
+            throw new IllegalArgumentException("grid must be at least 1 tick");
+        }
+        this.grid = grid;
+        shifts = new long[128];
+    }
+
+    @Override
+    public long apply(long event) {
+        long tick = MidiTransform.tickOf(event);
+        if (MidiTransform.isNoteOn(event)) {
+            long quantized = (tick + grid / 2) / grid * grid;
+            shifts[MidiTransform.data1Of(event)] = quantized - tick;
+            return MidiTransform.withTick(event, quantized);
+        }
+        if (MidiTransform.isNoteOff(event)) {
+            return MidiTransform.withTick(event, tick + shifts[MidiTransform.data1Of(event)]);
+        }
+        return event;
+    }
+
+    @Override
+    public MidiTransform forTrack(int track) {
+        return new QuantizeTransform(grid);
+    }
+
+}
@@ -0,0 +1,454 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.ShortMessage;
+
+public class RecordingJournal {
+    private final static int MAGIC = 0x534B4A52;
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 16;
+    private final static int RECORD_SIZE = 8; // kind and track byte, status, data1, data2, tick int
+    private final static int INITIAL_SIZE = 1 << 20;
+    private final static int COMMIT_INTERVAL_MS = 100;
+    private final static int CLOSE_TIMEOUT_MS = 1000;
+    private final static int EVENT = 1, // an event that is both in a track and what was played
+        CLEAR = 2,
+        PROJECT = 3, // followed by the length of the project's path and the path itself, padded to a whole record
+        DERIVED = 4, // an event a transform put in a track, which isn't what was played
+        RAW = 5, // what was played, when a transform changed or dropped it
+        RESHAPE = 6; // a track's events were cleared to be transformed again, keeping what was played
+
+    /**
+     * Receives the contents of a journal as it is recovered
+     */
+    public interface Replayer {
+        /**
+         * Called for each time a track was cleared
+         *
+         * @param track the index of the cleared track
+         */
+        void clear(int track);
+
+        /**
+         * Called for each event that was added to a track
+         *
+         * @param track the index of the track
+         * @param msg   the message of the event
+         * @param tick  the tick of the event
+         */
+        void event(int track, ShortMessage msg, long tick);
+
+        /**
+         * Called for each time a project file was opened or saved, replacing every track with the
+         * project's. The records after it are the changes made since
+         *
+         * @param file the project file
+         */
+        void project(File file);
+
+        /**
+         * Called for each event that a transform put in a track in place of what was played
+         *
+         * @param track the index of the track
+         * @param msg   the message of the event
+         * @param tick  the tick of the event
+         */
+        void derived(int track, ShortMessage msg, long tick);
+
+        /**
+         * Called for each event that was played but changed or dropped by a transform, so it isn't in
+         * the track as it was played
+         *
+         * @param track the index of the track
+         * @param msg   the message that was played
+         * @param tick  the tick it was played at
+         */
+        void raw(int track, ShortMessage msg, long tick);
+
+        /**
+         * Called for each time a track's events were cleared to be transformed again. What was played on
+         * the track is kept, unlike when it is cleared
+         *
+         * @param track the index of the track
+         */
+        void reshape(int track);
+    }
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+    private boolean dirty;
+    private ScheduledExecutorService committer;
+
+    /**
+     * Opens a journal file that every recorded event is appended to, so a take can be recovered if the
+     * app is killed before it is saved. The file is preallocated and memory-mapped, so appending an event
+     * is only a few writes to memory; the mapping is forced to disk in the background every 100 ms
+     *
+     * @param file the journal file, which is created if it doesn't exist
+     * @throws IOException if the file can't be opened or isn't a journal
+     */
+    public RecordingJournal(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        boolean created = channel.size() == 0;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), INITIAL_SIZE));
+        if (created) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(file + " is not a recording journal");
+        }
+        position = HEADER_SIZE;
+        dirty = created;
+
+        committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        committer.scheduleWithFixedDelay(this::commit, COMMIT_INTERVAL_MS, COMMIT_INTERVAL_MS,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads every record written since the journal was last reset, in order, and positions the journal
+     * to append after them
+     *
+     * @param replayer receives the recovered clears and events
+     * @return the number of records recovered
+     */
+    public synchronized int recover(Replayer replayer) {
+        int count = 0;
+        position = HEADER_SIZE;
+        while (position + RECORD_SIZE <= buffer.capacity()) {
+            int kind = buffer.get(position) >> 4;
+            int track = buffer.get(position) & 0xF;
+            int size = RECORD_SIZE;
+            if (kind == CLEAR) {
+                replayer.clear(track);
+            } else if (kind == RESHAPE) {
+                replayer.reshape(track);
+            } else if (kind == PROJECT) {
+                int length = buffer.getInt(position + 4);
+                size = RECORD_SIZE + padded(length);
+                if (length < 0 || position + size > buffer.capacity()) {
+                    break;
+                }
+                byte[] path = new byte[length];
+                buffer.get(position + RECORD_SIZE, path);
+                replayer.project(new File(new String(path, StandardCharsets.UTF_8)));
+            } else if (kind == EVENT || kind == DERIVED || kind == RAW) {
+                try {
+                    ShortMessage msg = new ShortMessage(buffer.get(position + 1) & 0xFF,
+                        buffer.get(position + 2) & 0xFF, buffer.get(position + 3) & 0xFF);
+                    long tick = buffer.getInt(position + 4);
+                    if (kind == EVENT) {
+                        replayer.event(track, msg, tick);
+                    } else if (kind == DERIVED) {
+                        replayer.derived(track, msg, tick);
+                    } else {
+                        replayer.raw(track, msg, tick);
+                    }
+                } catch (Exception e) {
+                    System.out.println(e.getMessage());
+                    break;
+                }
+            } else {
+                break;
+            }
+            position += size;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Appends an event that was added to a track as it was played
+     *
+     * @param track the index of the track
+     * @param msg   the message of the event
+     * @param tick  the tick of the event
+     */
+    public synchronized void append(int track, ShortMessage msg, long tick) {
+        put(EVENT, track, msg.getStatus(), msg.getData1(), msg.getData2(), tick);
+    }
+
+    /**
+     * Appends an event that was added to a track along with what was played to make it. If the event is
+     * exactly what was played it is journaled as a plain event; otherwise the event is marked as derived
+     * by a transform, and what was played is journaled separately so the transform can still be undone
+     * after recovery
+     *
+     * @param track the index of the track
+     * @param msg   the message of the event
+     * @param tick  the tick of the event
+     * @param raw   the packed event that was played, or MidiTransform.DROP if the event wasn't played
+     */
+    public synchronized void append(int track, ShortMessage msg, long tick, long raw) {
+        if (raw == MidiTransform.pack(tick, msg.getStatus(), msg.getData1(), msg.getData2())) {
+            append(track, msg, tick);
+            return;
+        }
+        put(DERIVED, track, msg.getStatus(), msg.getData1(), msg.getData2(), tick);
+        appendRaw(track, raw);
+    }
+
+    /**
+     * Appends several events that were added to a track together, under one lock
+     *
+     * @param track the index of the track
+     * @param msgs  the messages of the events
+     * @param ticks the ticks of the events
+     * @param raws  the packed events that were played to make them
+     * @param count the number of events to append
+     */
+    public synchronized void append(int track, ShortMessage[] msgs, long[] ticks, long[] raws, int count) {
+        for (int i = 0; i < count; i++) {
+            append(track, msgs[i], ticks[i], raws[i]);
+        }
+    }
+
+    /**
+     * Appends an event that was played but isn't in the track as played, because a transform changed or
+     * dropped it
+     *
+     * @param track the index of the track
+     * @param raw   the packed event that was played, which is ignored if it is MidiTransform.DROP
+     */
+    public synchronized void appendRaw(int track, long raw) {
+        if (raw != MidiTransform.DROP) {
+            put(RAW, track, MidiTransform.statusOf(raw), MidiTransform.data1Of(raw), MidiTransform.data2Of(raw),
+                MidiTransform.tickOf(raw));
+        }
+    }
+
+    /**
+     * Appends a marker that a track was cleared, so recovery drops the events before it
+     *
+     * @param track the index of the cleared track
+     */
+    public synchronized void appendClear(int track) {
+        if (!ensureCapacity(RECORD_SIZE)) {
+            return;
+        }
+        buffer.put(position, (byte) (CLEAR << 4 | track));
+        position += RECORD_SIZE;
+        dirty = true;
+    }
+
+    /**
+     * Appends a marker that a track's events were cleared to be transformed again, so recovery drops the
+     * events before it but keeps what was played
+     *
+     * @param track the index of the reshaped track
+     */
+    public synchronized void appendReshape(int track) {
+        if (!ensureCapacity(RECORD_SIZE)) {
+            return;
+        }
+        buffer.put(position, (byte) (RESHAPE << 4 | track));
+        position += RECORD_SIZE;
+        dirty = true;
+    }
+
+    /**
+     * Appends a marker that a project file was opened or saved, so recovery starts from the project
+     * instead of needing every one of its events in the journal
+     *
+     * @param file the project file
+     */
+    public synchronized void appendProject(File file) {
+        byte[] path = file.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_SIZE + padded(path.length);
+        if (!ensureCapacity(size)) {
+            return;
+        }
+        buffer.putInt(position + 4, path.length);
+        buffer.put(position + RECORD_SIZE, path);
+        buffer.put(position, (byte) (PROJECT << 4)); // written last, so a record is only valid once complete
+        position += size;
+        dirty = true;
+    }
+
+    /**
+     * Empties the journal, for once everything in it has been saved somewhere else
+     */
+    public synchronized void reset() {
+        if (buffer == null) {
+            return;
+        }
+        byte[] zeros = new byte[Math.min(position - HEADER_SIZE, 64 * 1024)];
+        for (int offset = HEADER_SIZE; offset < position; offset += zeros.length) {
+            buffer.put(offset, zeros, 0, Math.min(zeros.length, position - offset));
+        }
+        position = HEADER_SIZE;
+        dirty = true;
+    }
+
+    /**
+     * Marks how far the journal has been appended, so it can later be restarted from there
+     *
+     * @return the mark, which stays valid until the journal is next reset or restarted
+     */
+    public synchronized int mark() {
+        return position;
+    }
+
+    /**
+     * Empties the journal of everything appended before a mark, but keeps what was appended since, for
+     * once the state the journal was in at the mark has been saved somewhere else. A save can then copy
+     * the tracks, write them without holding up recording, and still keep the events recorded while it
+     * was writing
+     *
+     * @param mark    a mark returned by mark
+     * @param project the project file the state was saved to, which recovery starts from, or null if it
+     *                wasn't saved as a project
+     */
+    public synchronized void restart(int mark, File project) {
+        if (buffer == null) {
+            return;
+        }
+        byte[] kept = new byte[Math.max(0, position - mark)];
+        buffer.get(mark, kept);
+        reset();
+        if (project != null) {
+            appendProject(project);
+        }
+        if (!ensureCapacity(kept.length)) {
+            return;
+        }
+        buffer.put(position, kept);
+        position += kept.length;
+        dirty = true;
+    }
+
+    /**
+     * Forces everything appended so far to disk, if anything has been appended since the last commit.
+     * The lock is only held to check for new records, so appends never wait on the disk
+     */
+    public void commit() {
+        MappedByteBuffer toForce;
+        synchronized (this) {
+            if (!dirty || buffer == null) {
+                return;
+            }
+            dirty = false;
+            toForce = buffer;
+        }
+        toForce.force();
+    }
+
+    /**
+     * Stops the background commits, forces everything appended to disk and closes the file. Anything
+     * appended afterwards is ignored. The journal isn't reset, so whatever wasn't saved is still recovered
+     * the next time it is opened
+     */
+    public void close() {
+        committer.shutdown();
+        try {
+            committer.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (buffer == null) {
+                return;
+            }
+            buffer.force();
+            buffer = null; // the mapping itself is released once the buffer is garbage collected
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Measures how long appending an event takes, which is what journaling adds to every recorded note.
+     * Takes the number of events to append and the journal file to use, which is deleted afterwards
+     */
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        File file = args.length > 1 ? new File(args[1]) : File.createTempFile("benchmark", ".journal");
+        file.delete();
+        RecordingJournal journal = new RecordingJournal(file);
+        ShortMessage[] msgs = new ShortMessage[128];
+        for (int i = 0; i < msgs.length; i++) {
+            msgs[i] = new ShortMessage(i % 2 == 0 ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF, 0, i, 64);
+        }
+        for (int round = 0; round < 5; round++) {
+            journal.reset();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                journal.append(0, msgs[i & 127], i);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("round %d: %d appends, %.1f ns each%n", round, count, elapsed / (double) count);
+        }
+        journal.close();
+        file.delete();
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Writes one event record of the given kind
+     */
+    private void put(int kind, int track, int status, int data1, int data2, long tick) {
+        if (!ensureCapacity(RECORD_SIZE)) {
+            return;
+        }
+        buffer.put(position + 1, (byte) status);
+        buffer.put(position + 2, (byte) data1);
+        buffer.put(position + 3, (byte) data2);
+        buffer.putInt(position + 4, (int) tick);
+        buffer.put(position, (byte) (kind << 4 | track)); // written last, so a record is only valid once complete
+        position += RECORD_SIZE;
+        dirty = true;
+    }
+
+    /**
+     * Doubles the size of the mapped file until there is room for a record of the given size, returning
+     * whether there is room now; there never is once the journal has been closed
+     */
+    private boolean ensureCapacity(int size) {
+        if (buffer == null) {
+            return false;
+        }
+        if (position + size > buffer.capacity()) {
+            try {
+                long capacity = buffer.capacity();
+                while (position + size > capacity) {
+                    capacity *= 2;
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rounds a length up to a whole number of records
+     */
+    private static int padded(int length) {
+        return (length + RECORD_SIZE - 1) / RECORD_SIZE * RECORD_SIZE;
+    }
+
+}
@@ -0,0 +1,228 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+public class StemCache {
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    /**
+     * The rendered audio of one track, kept either on the heap or in a memory-mapped spill file
+     */
+    public static class Stem {
+        private volatile ByteBuffer pcm; // replaced by a mapped copy when spilled, while a player may be reading it
+        private File spillFile;
+
+        private Stem(ByteBuffer pcm) {
+            this.pcm = pcm.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Gets the stem's samples as 16 bit little-endian PCM in the format it was rendered in. The buffer
+         * is a view of its own, so reading it doesn't disturb anyone else reading the same stem
+         *
+         * @return the rendered samples
+         */
+        public ByteBuffer getPcm() {
+            return pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * @return the size of the rendered samples in bytes
+         */
+        public int getSize() {
+            return pcm.capacity();
+        }
+
+        /**
+         * @return whether the stem has been moved out of memory into a spill file
+         */
+        public boolean isSpilled() {
+            return spillFile != null;
+        }
+    }
+
+    private final long memoryBudget;
+    private final File spillDir;
+    private final long spillBudget;
+
+    private LinkedHashMap<Long, Stem> stems;
+    private long memoryUsed;
+    private long spillUsed;
+
+    /**
+     * Creates a StemCache that keeps the rendered audio of tracks, so tracks that haven't changed can be
+     * mixed in from memory instead of being synthesized again each time they are played. Stems are
+     * looked up by the content hash of their track and the instrument it is played with. When the stems in
+     * memory outgrow the budget, the least recently used ones are moved to memory-mapped files in the
+     * spill directory, or dropped if there is none, and spilled stems are dropped once they outgrow their
+     * own budget
+     *
+     * @param memoryBudget the most bytes of stems to keep on the heap
+     * @param spillDir     the directory to spill stems to, or null to drop them instead
+     * @param spillBudget  the most bytes of stems to keep in spill files
+     */
+    public StemCache(long memoryBudget, File spillDir, long spillBudget) {
+        this.memoryBudget = memoryBudget;
+        this.spillDir = spillDir;
+        this.spillBudget = spillDir != null ? spillBudget : 0;
+        stems = new LinkedHashMap<>(16, 0.75f, true); // access order, so the eldest entry is the least recently used
+        memoryUsed = 0;
+        spillUsed = 0;
+    }
+
+    /**
+     * Gets the stem rendered for a track's content and instrument, marking it as recently used
+     *
+     * @param contentHash the content hash of the track
+     * @param program     the instrument the track is played with
+     * @return the stem, or null if that content hasn't been rendered or has been dropped since
+     */
+    public synchronized Stem get(long contentHash, int program) {
+        return stems.get(key(contentHash, program));
+    }
+
+    /**
+     * Keeps the rendered audio of a track's content and instrument, making room for it by spilling or
+     * dropping the least recently used stems
+     *
+     * @param contentHash the content hash of the track
+     * @param program     the instrument the track is played with
+     * @param pcm         the rendered samples, as 16 bit little-endian PCM
+     * @return whether the stem was kept, which it isn't if it is bigger than the whole budget
+     */
+    public synchronized boolean put(long contentHash, int program, byte[] pcm) {
+        if (pcm.length > memoryBudget && pcm.length > spillBudget) {
+            return false;
+        }
+        Stem old = stems.remove(key(contentHash, program));
+        if (old != null) {
+            forget(old);
+        }
+        Stem stem = new Stem(ByteBuffer.wrap(pcm));
+        stems.put(key(contentHash, program), stem);
+        memoryUsed += stem.getSize();
+        if (pcm.length > memoryBudget) {
+            spill(stem);
+        }
+        trim();
+        return stems.containsValue(stem);
+    }
+
+    /**
+     * Drops every stem, for when the format they were rendered in no longer matches the output
+     */
+    public synchronized void clear() {
+        for (Stem stem : stems.values()) {
+            forget(stem);
+        }
+        stems.clear();
+    }
+
+    /**
+     * @return the number of stems kept, in memory and spilled
+     */
+    public synchronized int size() {
+        return stems.size();
+    }
+
+    /**
+     * @return the bytes of stems kept on the heap
+     */
+    public synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /**
+     * @return the bytes of stems kept in spill files
+     */
+    public synchronized long getSpillUsed() {
+        return spillUsed;
+    }
+
+    /**
+     * Combines a track's content hash with its instrument into the key its stem is kept under, one step of
+     * 64 bit FNV-1a
+     *
+     * @param contentHash the content hash of the track
+     * @param program     the instrument the track is played with
+     * @return the key of the track's stem
+     */
+    static long key(long contentHash, int program) {
+        return (contentHash ^ program) * HASH_PRIME;
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Spills or drops the least recently used stems until both budgets are met
+     */
+    private void trim() {
+        Iterator<Stem> eldest = stems.values().iterator();
+        while (memoryUsed > memoryBudget && eldest.hasNext()) {
+            Stem stem = eldest.next();
+            if (!stem.isSpilled() && (spillDir == null || !spill(stem))) {
+                eldest.remove();
+                forget(stem);
+            }
+        }
+        eldest = stems.values().iterator();
+        while (spillUsed > spillBudget && eldest.hasNext()) {
+            Stem stem = eldest.next();
+            if (stem.isSpilled()) {
+                eldest.remove();
+                forget(stem);
+            }
+        }
+    }
+
+    /**
+     * Moves a stem's samples into a memory-mapped file of its own, so they no longer count against the
+     * heap; returns false if the file couldn't be written
+     */
+    private boolean spill(Stem stem) {
+        try {
+            File file = File.createTempFile("stem", ".pcm", spillDir);
+            file.deleteOnExit();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                ByteBuffer pcm = stem.getPcm();
+                pcm.rewind();
+                while (pcm.hasRemaining()) {
+                    channel.write(pcm);
+                }
+                // the mapping stays valid after the channel is closed
+                stem.pcm = channel.map(FileChannel.MapMode.READ_ONLY, 0, stem.getSize()).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            stem.spillFile = file;
+            memoryUsed -= stem.getSize();
+            spillUsed += stem.getSize();
+            return true;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Takes a stem that has been removed from the cache off the budget it was counted against, deleting
+     * its spill file. Anyone still playing it keeps their reference to its samples
+     */
+    private void forget(Stem stem) {
+        if (stem.isSpilled()) {
+            spillUsed -= stem.getSize();
+            stem.spillFile.delete();
+            stem.spillFile = null;
+        } else {
+            memoryUsed -= stem.getSize();
+        }
+    }
+
+
+}
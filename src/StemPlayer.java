@@ -0,0 +1,230 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.SourceDataLine;
+
+public class StemPlayer {
+    private static final int JOIN_TIMEOUT_MS = 1000;
+
+    private final AudioInputStream synthOutput;
+    private final SourceDataLine line;
+    private final AudioFormat format;
+    private float[] leftGains;
+    private float[] rightGains;
+    private final Object gainLock = new Object(); // separate from the player's monitor, which close holds while joining
+
+    private Thread thread;
+    private volatile boolean running;
+    private volatile ByteBuffer[] stems;
+    private volatile long endFrame;
+    private AtomicLong position;
+
+    /**
+     * Creates a StemPlayer that pushes everything the synthesizer renders to the output line, mixing the
+     * rendered stems of tracks into the synthesizer's own samples on the way. Stems and the tracks the
+     * synthesizer plays therefore come out of the same samples and the same line, so they can't drift
+     * apart the way two lines would. Each track's stem is scaled by a gain for each speaker, which can be
+     * changed while it plays
+     *
+     * @param synthOutput the stream the synthesizer renders into, in the format the stems were rendered in
+     * @param line        the open output line to write the mix to
+     * @param numTracks   the number of tracks that can have a stem
+     */
+    public StemPlayer(AudioInputStream synthOutput, SourceDataLine line, int numTracks) {
+        this.synthOutput = synthOutput;
+        this.line = line;
+        format = synthOutput.getFormat();
+        leftGains = new float[numTracks];
+        rightGains = new float[numTracks];
+        position = new AtomicLong();
+    }
+
+    /**
+     * Starts the thread that reads the synthesizer's output and writes it to the line, which from then on
+     * is what keeps the synthesizer rendering
+     */
+    public synchronized void open() {
+        if (running) {
+            return;
+        }
+        running = true;
+        line.start();
+        thread = new Thread(this::push, "synth-output");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY); // like the synthesizer's own pusher, since it feeds the speakers
+        thread.start();
+    }
+
+    /**
+     * Stops pushing the synthesizer's output, waiting for the thread to finish its last write. The line is
+     * left open for its owner to close
+     */
+    public synchronized void close() {
+        running = false;
+        stems = null;
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join(JOIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Sets how loud a track's stem is in each speaker
+     *
+     * @param track the index of the track
+     * @param left  the gain of the left channel, where 1 leaves the stem as rendered and 0 silences it
+     * @param right the gain of the right channel
+     */
+    public void setGain(int track, float left, float right) {
+        synchronized (gainLock) {
+            leftGains[track] = left;
+            rightGains[track] = right;
+        }
+    }
+
+    /**
+     * Starts mixing stems into the synthesizer's output from the given frame, replacing any stems already
+     * being mixed. They are mixed in from the next samples the synthesizer renders, which are the ones
+     * events sent to it now are rendered into
+     *
+     * @param stems      the samples of each track's stem, or null for tracks without one
+     * @param startFrame the frame to start from, which is where the sequencer is in the sequence
+     */
+    public void start(ByteBuffer[] stems, long startFrame) {
+        long end = 0;
+        for (ByteBuffer stem : stems) {
+            if (stem != null) {
+                end = Math.max(end, stem.capacity() / format.getFrameSize());
+            }
+        }
+        this.stems = null;
+        endFrame = end;
+        position.set(startFrame);
+        this.stems = stems;
+    }
+
+    /**
+     * Moves the stems to another frame. Only the stems jump; the synthesizer's output carries on as it was
+     *
+     * @param frame the frame to continue from
+     */
+    public void seek(long frame) {
+        position.set(frame);
+    }
+
+    /**
+     * Stops mixing stems in. The synthesizer's output keeps being pushed to the line
+     */
+    public void stop() {
+        stems = null;
+    }
+
+    /**
+     * @return whether stems are being mixed in
+     */
+    public boolean isPlaying() {
+        return stems != null;
+    }
+
+    /**
+     * Gets the frame of the stems that will be mixed into the next samples the synthesizer renders
+     *
+     * @return the current frame of the stems
+     */
+    public long getFrame() {
+        return position.get();
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Reads the synthesizer's output a control buffer at a time, mixes the stems into it and writes it to
+     * the line until closed. Runs on the player's own thread, which blocks on the line whenever its buffer
+     * is full, so the synthesizer renders just far enough ahead to keep the line filled
+     */
+    private void push() {
+        int frameSize = format.getFrameSize();
+        int chunkSize = frameSize * 64;
+        try {
+            chunkSize = Math.max(chunkSize, synthOutput.available() / frameSize * frameSize);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        byte[] chunk = new byte[chunkSize];
+        float[] left = new float[leftGains.length];
+        float[] right = new float[rightGains.length];
+        try {
+            while (running) {
+                int count = synthOutput.readNBytes(chunk, 0, chunk.length);
+                if (count <= 0) {
+                    break;
+                }
+                ByteBuffer[] mixing = stems;
+                if (mixing != null) {
+                    synchronized (gainLock) {
+                        System.arraycopy(leftGains, 0, left, 0, left.length);
+                        System.arraycopy(rightGains, 0, right, 0, right.length);
+                    }
+                    mix(mixing, chunk, count / frameSize, left, right);
+                }
+                line.write(chunk, 0, count);
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage()); // the synthesizer was closed under us
+        }
+    }
+
+    /**
+     * Adds the stems at the current frame to a chunk of the synthesizer's samples and moves the frame on,
+     * stopping once the longest stem has ended
+     */
+    private void mix(ByteBuffer[] mixing, byte[] chunk, int frames, float[] left, float[] right) {
+        int frameSize = format.getFrameSize();
+        long frame = position.getAndAdd(frames);
+        if (frame >= endFrame) {
+            stems = null;
+            return;
+        }
+        for (int i = 0; i < frames; i++) {
+            float leftSum = getSample(chunk, i * frameSize);
+            float rightSum = getSample(chunk, i * frameSize + 2);
+            long offset = (frame + i) * frameSize;
+            for (int t = 0; t < mixing.length; t++) {
+                ByteBuffer stem = mixing[t];
+                if (stem != null && offset >= 0 && offset + frameSize <= stem.capacity()) {
+                    leftSum += stem.getShort((int) offset) * left[t];
+                    rightSum += stem.getShort((int) offset + 2) * right[t];
+                }
+            }
+            putSample(chunk, i * frameSize, leftSum);
+            putSample(chunk, i * frameSize + 2, rightSum);
+        }
+    }
+
+    /**
+     * Reads a sample of 16 bit little-endian PCM
+     */
+    private static int getSample(byte[] chunk, int offset) {
+        return (chunk[offset] & 0xFF) | chunk[offset + 1] << 8;
+    }
+
+    /**
+     * Writes a mixed sample as 16 bit little-endian PCM, clipping it to the range that fits
+     */
+    private static void putSample(byte[] chunk, int offset, float sample) {
+        int value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sample)));
+        chunk[offset] = (byte) value;
+        chunk[offset + 1] = (byte) (value >> 8);
+    }
+
+}
@@ -0,0 +1,105 @@
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+public class StemRenderer {
+    private static final double TAIL_SECONDS = 2; // long enough for the release of the last notes to ring out
+    private static final int FULL_VOLUME = 127;
+    private static final int CENTER_PAN = 64;
+    private static final int VOLUME_CONTROLLER = 7;
+    private static final int PAN_CONTROLLER = 10;
+
+    private final AudioFormat format;
+    private final Map<String, Object> infoMap;
+
+    /**
+     * Creates a StemRenderer that renders tracks to audio as fast as a synthesizer can, without playing
+     * them, in the format of the given audio profile. Each track is rendered at full volume in the center,
+     * so a stem can be mixed in at any volume and pan without rendering it again
+     *
+     * @param profile the audio profile whose format the stems are rendered in
+     */
+    public StemRenderer(AudioProfile profile) {
+        format = profile.getFormat();
+        infoMap = profile.getInfoMap();
+    }
+
+    /**
+     * @return the format the stems are rendered in
+     */
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Checks whether tracks can be rendered. Like opening the synthesizer on a line of our own, this goes
+     * through an interface the JDK does not export, so it needs the JVM option
+     * --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED
+     *
+     * @return whether the software synthesizer's offline rendering can be used
+     */
+    public static boolean isAvailable() {
+        try {
+            Synthesizer synth = MidiSystem.getSynthesizer();
+            return openStreamMethod(synth).canAccess(synth);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Renders a track's events on a synthesizer of its own, from the start of the sequence until its last
+     * event has rung out
+     *
+     * @param events       the events of the track, in tick order
+     * @param channel      the channel the track plays on
+     * @param program      the instrument the track is played with
+     * @param microsPerTick the length of a tick in microseconds
+     * @return the rendered samples, as 16 bit little-endian PCM
+     * @throws Exception if the synthesizer couldn't be opened for rendering
+     */
+    public byte[] render(List<MidiEvent> events, int channel, int program, double microsPerTick) throws Exception {
+        Synthesizer synth = MidiSystem.getSynthesizer(); // a new instance, separate from the one playing live
+        AudioInputStream stream = (AudioInputStream) openStreamMethod(synth).invoke(synth, format, infoMap);
+        try {
+            Receiver receiver = synth.getReceiver();
+            receiver.send(new ShortMessage(ShortMessage.PROGRAM_CHANGE, channel, program, 0), 0);
+            receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, VOLUME_CONTROLLER, FULL_VOLUME), 0);
+            receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, PAN_CONTROLLER, CENTER_PAN), 0);
+            long lastMicros = 0;
+            for (MidiEvent event : events) {
+                if (event.getMessage() instanceof ShortMessage) {
+                    // time stamps count from when the stream was opened, so they place each event exactly
+                    long micros = (long) (event.getTick() * microsPerTick);
+                    receiver.send(event.getMessage(), micros);
+                    lastMicros = Math.max(lastMicros, micros);
+                }
+            }
+            long frames = (long) ((lastMicros / 1e6 + TAIL_SECONDS) * format.getFrameRate());
+            return stream.readNBytes((int) Math.min(frames * format.getFrameSize(), Integer.MAX_VALUE - 8));
+        } finally {
+            stream.close();
+            synth.close();
+        }
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Finds the software synthesizer's method for rendering into a stream instead of an output line
+     */
+    private static Method openStreamMethod(Synthesizer synth) throws NoSuchMethodException {
+        return synth.getClass().getMethod("openStream", AudioFormat.class, Map.class);
+    }
+
+}
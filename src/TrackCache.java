@@ -0,0 +1,133 @@
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+public class TrackCache {
+    private static final long HASH_BASIS = 0xcbf29ce484222325L;
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    private long[] contentHashes;
+    private long[] loadedKeys;
+    private boolean loaded;
+
+    /**
+     * Creates a TrackCache that keeps a running hash of the events in each track, so the sequencer only
+     * has to be reloaded when a track's content or instrument has actually changed
+     *
+     * @param numTracks the number of tracks in the sequence
+     */
+    public TrackCache(int numTracks) {
+        contentHashes = new long[numTracks];
+        loadedKeys = new long[numTracks];
+        for (int i = 0; i < numTracks; i++) {
+            contentHashes[i] = HASH_BASIS;
+        }
+        loaded = false;
+    }
+
+    /**
+     * Folds an event that was added to a track into that track's content hash
+     *
+     * @param track the index of the track the event was added to
+     * @param event the event that was added
+     */
+    public void record(int track, MidiEvent event) {
+        long hash = contentHashes[track];
+        hash = mix(hash, event.getTick());
+        MidiMessage msg = event.getMessage();
+        if (msg instanceof ShortMessage) {
+            ShortMessage shortMsg = (ShortMessage) msg;
+            hash = mix(hash, shortMsg.getStatus());
+            hash = mix(hash, shortMsg.getData1());
+            hash = mix(hash, shortMsg.getData2());
+        } else {
+            for (byte b : msg.getMessage()) {
+                hash = mix(hash, b);
+            }
+        }
+        contentHashes[track] = hash;
+    }
+
+    /**
+     * Resets the hash of a cleared track. The track object itself is replaced when it is cleared, so the
+     * sequencer always has to be reloaded afterwards
+     *
+     * @param track the index of the cleared track
+     */
+    public void reset(int track) {
+        contentHashes[track] = HASH_BASIS;
+        loaded = false;
+    }
+
+    /**
+     * Gets the hash of all of the events that have been added to a track since it was last cleared
+     *
+     * @param track the index of the track
+     * @return the content hash of the track
+     */
+    public long getContentHash(int track) {
+        return contentHashes[track];
+    }
+
+    /**
+     * Gets a hash of the content of every track, in track order
+     *
+     * @return the combined content hash of the sequence
+     */
+    public long getSequenceHash() {
+        long hash = HASH_BASIS;
+        for (long trackHash : contentHashes) {
+            hash = mix(hash, trackHash);
+        }
+        return hash;
+    }
+
+    /**
+     * Checks whether any track has changed content or instrument since the sequence was last loaded
+     *
+     * @param programs the instrument selected for each track
+     * @return whether the sequencer needs to be given the sequence again
+     */
+    public boolean isStale(int[] programs) {
+        if (!loaded) {
+            return true;
+        }
+        for (int i = 0; i < contentHashes.length; i++) {
+            if (loadedKeys[i] != key(i, programs[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remembers the current key of each track as the version loaded into the sequencer
+     *
+     * @param programs the instrument selected for each track
+     */
+    public void markLoaded(int[] programs) {
+        for (int i = 0; i < contentHashes.length; i++) {
+            loadedKeys[i] = key(i, programs[i]);
+        }
+        loaded = true;
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Combines a track's content hash with its instrument
+     */
+    private long key(int track, int program) {
+        return mix(contentHashes[track], program);
+    }
+
+    /**
+     * One step of 64 bit FNV-1a, applied to a whole value instead of a single byte
+     */
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * HASH_PRIME;
+    }
+
+}
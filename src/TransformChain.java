@@ -0,0 +1,56 @@
+import java.util.Arrays;
+
+public class TransformChain implements MidiTransform {
+    public final static TransformChain EMPTY = new TransformChain();
+
+    private MidiTransform[] stages;
+
+    /**
+     * Creates a chain that runs each event through the given transforms in order
+     *
+     * @param stages the transforms to run, first to last
+     */
+    public TransformChain(MidiTransform... stages) {
+        this.stages = stages.clone();
+    }
+
+    @Override
+    public long apply(long event) {
+        for (MidiTransform stage : stages) {
+            event = stage.apply(event);
+            if (event == DROP) {
+                return DROP;
+            }
+        }
+        return event;
+    }
+
+    @Override
+    public TransformChain forTrack(int track) {
+        MidiTransform[] trackStages = new MidiTransform[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            trackStages[i] = stages[i].forTrack(track);
+        }
+        return new TransformChain(trackStages);
+    }
+
+    /**
+     * Runs every event of a track through the chain, leaving out the events it drops
+     *
+     * @param events the packed events of a track
+     * @param count  the number of events to transform
+     * @return the transformed packed events
+     */
+    public long[] applyAll(long[] events, int count) {
+        long[] result = new long[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            long event = apply(events[i]);
+            if (event != DROP) {
+                result[size++] = event;
+            }
+        }
+        return size == count ? result : Arrays.copyOf(result, size);
+    }
+
+}
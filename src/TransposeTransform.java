@@ -0,0 +1,26 @@
+public class TransposeTransform implements MidiTransform {
+    private int semitones;
+
+    /**
+     * Transform that moves every note up or down by a number of semitones, dropping notes that would
+     * end up outside the MIDI range
+     *
+     * @param semitones how far to move each note, negative to move it down
+     */
+    public TransposeTransform(int semitones) {
+        this.semitones = semitones;
+    }
+
+    @Override
+    public long apply(long event) {
+        if (!MidiTransform.isNoteOn(event) && !MidiTransform.isNoteOff(event)) {
+            return event;
+        }
+        int pitch = MidiTransform.data1Of(event) + semitones;
+        if (pitch < 0 || pitch > 127) {
+            return DROP;
+        }
+        return MidiTransform.withData1(event, pitch);
+    }
+
+}
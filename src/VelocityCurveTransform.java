@@ -0,0 +1,27 @@
+public class VelocityCurveTransform implements MidiTransform {
+    private byte[] curve;
+
+    /**
+     * Transform that reshapes the velocity of every note through a power curve. An exponent below 1
+     * makes soft notes louder, and one above 1 makes them softer; loud notes stay loud either way
+     *
+     * @param exponent the exponent of the curve, where 1 leaves velocities unchanged
+     * @param scale    how much to scale the curve by, where 1 keeps the loudest note at 127
+     */
+    public VelocityCurveTransform(double exponent, double scale) {
+        curve = new byte[128];
+        for (int velocity = 1; velocity < 128; velocity++) {
+            long shaped = Math.round(127 * scale * Math.pow(velocity / 127.0, exponent));
+            curve[velocity] = (byte) Math.max(1, Math.min(127, shaped)); // 0 would turn the note off
+        }
+    }
+
+    @Override
+    public long apply(long event) {
+        if (!MidiTransform.isNoteOn(event)) {
+            return event;
+        }
+        return MidiTransform.withData2(event, curve[MidiTransform.data2Of(event)]);
+    }
+
+}
@@ -0,0 +1,110 @@
+import java.awt.EventQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Transmitter;
+
+public class VirtualTransmitter implements Transmitter {
+    private volatile Receiver receiver;
+
+    /**
+     * Creates a transmitter that sends whatever messages it is given, standing in for a MIDI controller
+     * in tests and benchmarks
+     */
+    public VirtualTransmitter() {
+        receiver = null;
+    }
+
+    /**
+     * Sends a message to the receiver straight away, on the calling thread
+     *
+     * @param message the message to send
+     */
+    public void send(MidiMessage message) {
+        Receiver current = receiver;
+        if (current != null) {
+            current.send(message, -1);
+        }
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public Receiver getReceiver() {
+        return receiver;
+    }
+
+    @Override
+    public void close() {
+        receiver = null;
+    }
+
+    /**
+     * Compares how long notes take to reach the synthesizer when played through the keyboard path, which
+     * hands each event to the UI thread as the window does, and through the external input path, which
+     * plays them on the sender's thread. Takes the number of notes, and optionally how many milliseconds
+     * of each 16 ms frame the UI thread spends drawing, to see how a busy window delays the keyboard path
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        double frameWork = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+
+        MidiManager midiMan = new MidiManager();
+        KeyboardManager keyboard = new KeyboardManager(midiMan);
+        InputHandler input = new InputHandler(midiMan, keyboard, new KeyboardLink(keyboard.getKeys()));
+        VirtualTransmitter controller = new VirtualTransmitter();
+        midiMan.connectInput(controller);
+        int numKeys = keyboard.getKeys().size();
+
+        ScheduledExecutorService frames = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "frames");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (frameWork > 0) {
+            long busy = (long) (frameWork * 1e6);
+            frames.scheduleAtFixedRate(() -> EventQueue.invokeLater(() -> {
+                long end = System.nanoTime() + busy;
+                while (System.nanoTime() < end) {
+                    Thread.onSpinWait();
+                }
+            }), 0, 16, TimeUnit.MILLISECONDS);
+        }
+
+        LatencyHistogram keyboardPath = new LatencyHistogram("keyboard");
+        LatencyHistogram externalPath = new LatencyHistogram("external");
+        for (int i = 0; i < count; i++) {
+            int keyIndex = i % numKeys;
+            long posted = System.nanoTime();
+            EventQueue.invokeAndWait(() -> {
+                input.mouseDown(keyIndex, 0);
+                keyboardPath.record(System.nanoTime() - posted);
+                input.mouseUp(keyIndex, 0);
+            });
+
+            int pitch = 48 + keyIndex;
+            long sent = System.nanoTime();
+            controller.send(new ShortMessage(ShortMessage.NOTE_ON, 0, pitch, 64));
+            externalPath.record(System.nanoTime() - sent);
+            controller.send(new ShortMessage(ShortMessage.NOTE_OFF, 0, pitch, 0));
+
+            Thread.sleep(3); // spread the notes over many frames
+        }
+
+        for (LatencyHistogram histogram : new LatencyHistogram[] { keyboardPath, externalPath }) {
+            System.out.printf("%-8s p50 %.1f us, p99 %.1f us, max %.1f us%n", histogram.getName(),
+                histogram.getPercentile(0.5) / 1e3, histogram.getPercentile(0.99) / 1e3, histogram.getMax() / 1e3);
+        }
+        System.out.println(midiMan.getLatencyStats().describe(LatencyStats.EXTERNAL));
+        System.exit(0);
+    }
+
+}
@@ -0,0 +1,102 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.ShortMessage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ArpeggiatorTest {
+    private CapturingSynthesizer synth;
+    private MidiManager midiMan;
+    private Arpeggiator arpeggiator;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        synth = new CapturingSynthesizer();
+        midiMan = new MidiManager(synth, MidiSystem.getSequencer(false), AudioProfile.BALANCED);
+        arpeggiator = midiMan.getArpeggiator();
+        synth.clear();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        midiMan.close();
+    }
+
+    @Test
+    public void learningAChordStopsTheHeldNotes() {
+        midiMan.pressKey(60, 0);
+        midiMan.pressKey(64, 0);
+        assertTrue(arpeggiator.learnChord());
+        midiMan.releaseKey(60, 0);
+        midiMan.releaseKey(64, 0);
+
+        assertAllStopped();
+        assertEquals(4, synth.getCount(), "releasing the keys sends nothing more");
+    }
+
+    @Test
+    public void clearingAChordStopsEveryNoteOfIt() {
+        midiMan.pressKey(60, 0);
+        midiMan.pressKey(67, 0);
+        arpeggiator.learnChord();
+        midiMan.pressKey(72, 0); // plays 72 and 79
+        arpeggiator.clearChord();
+        midiMan.releaseKey(72, 0);
+        midiMan.releaseKey(60, 0);
+        midiMan.releaseKey(67, 0);
+
+        assertAllStopped();
+    }
+
+    @Test
+    public void keysHeldThroughTheArpeggioAreNotStoppedTwice() {
+        midiMan.pressKey(60, 0);
+        arpeggiator.start();
+        arpeggiator.stop();
+        synth.clear();
+        midiMan.releaseKey(60, 0);
+
+        assertEquals(0, synth.getCount());
+    }
+
+    @Test
+    public void notesSentFromAnotherThreadDontFinishAKeysMeasurement() throws Exception {
+        LatencyStats stats = new LatencyStats();
+        stats.markInput();
+        stats.markKey();
+        Thread other = new Thread(() -> stats.markSent(0));
+        other.start();
+        other.join();
+        assertEquals(0, stats.getStage(LatencyStats.DISPATCH).getCount());
+
+        stats.markSent(0);
+        assertEquals(1, stats.getStage(LatencyStats.DISPATCH).getCount());
+        assertEquals(1, stats.getStage(LatencyStats.TOTAL).getCount());
+    }
+
+    /*
+     * Helpers
+     */
+
+    /**
+     * Checks that every note the synthesizer was sent was stopped again
+     */
+    private void assertAllStopped() {
+        int[] sounding = new int[128];
+        for (int i = 0; i < synth.getCount(); i++) {
+            int command = synth.getStatus(i) & 0xF0;
+            if (command == ShortMessage.NOTE_ON && synth.getData2(i) > 0) {
+                sounding[synth.getData1(i)]++;
+            } else if (command == ShortMessage.NOTE_OFF || command == ShortMessage.NOTE_ON) {
+                sounding[synth.getData1(i)] = 0;
+            }
+        }
+        for (int pitch = 0; pitch < 128; pitch++) {
+            assertEquals(0, sounding[pitch], "note " + pitch + " is still sounding");
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+import java.io.ByteArrayOutputStream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+
+public class CapturingLine implements SourceDataLine {
+    private final AudioFormat format;
+    private final ByteArrayOutputStream written;
+    private boolean open;
+    private boolean running;
+
+    /**
+     * Creates an output line that plays nothing and instead keeps every byte written to it, so tests can
+     * check exactly what would have reached the speakers. Writes never block
+     *
+     * @param format the format of the audio written to the line
+     */
+    public CapturingLine(AudioFormat format) {
+        this.format = format;
+        written = new ByteArrayOutputStream();
+    }
+
+    /**
+     * @return every byte written to the line so far
+     */
+    public synchronized byte[] getWritten() {
+        return written.toByteArray();
+    }
+
+    /*
+     * SourceDataLine
+     */
+
+    @Override
+    public synchronized void open(AudioFormat format, int bufferSize) {
+        open = true;
+    }
+
+    @Override
+    public synchronized void open(AudioFormat format) {
+        open = true;
+    }
+
+    @Override
+    public synchronized void open() {
+        open = true;
+    }
+
+    @Override
+    public synchronized int write(byte[] b, int off, int len) {
+        written.write(b, off, len);
+        return len;
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public synchronized void start() {
+        running = true;
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public synchronized boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return format.getFrameSize() * 1024;
+    }
+
+    @Override
+    public int available() {
+        return getBufferSize();
+    }
+
+    @Override
+    public synchronized int getFramePosition() {
+        return written.size() / format.getFrameSize();
+    }
+
+    @Override
+    public synchronized long getLongFramePosition() {
+        return written.size() / format.getFrameSize();
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (getLongFramePosition() / format.getFrameRate() * 1e6);
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public DataLine.Info getLineInfo() {
+        return new DataLine.Info(SourceDataLine.class, format);
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+        running = false;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("the capturing line has no controls");
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+    }
+
+}
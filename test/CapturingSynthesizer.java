@@ -0,0 +1,268 @@
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sound.midi.Instrument;
+import javax.sound.midi.MidiChannel;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Patch;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Transmitter;
+import javax.sound.midi.VoiceStatus;
+
+public class CapturingSynthesizer implements Synthesizer {
+    private static final int CAPACITY = 1 << 18;
+
+    private final Info info;
+    private final Receiver receiver;
+    private boolean open;
+
+    private int count;
+    private int[] statuses;
+    private int[] data1s;
+    private int[] data2s;
+    private long[] timeStamps;
+
+    /**
+     * Creates a synthesizer that makes no sound and instead keeps every message it is sent, along with
+     * the time stamp it was sent with, so tests can check exactly what reached it. Messages are kept in
+     * arrays made up front, so capturing them doesn't allocate anything
+     */
+    public CapturingSynthesizer() {
+        info = new Info("Capturing Synthesizer", "test", "Keeps every message it is sent", "1.0") {
+        };
+        receiver = new Receiver() {
+            @Override
+            public void send(MidiMessage message, long timeStamp) {
+                capture(message, timeStamp);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        statuses = new int[CAPACITY];
+        data1s = new int[CAPACITY];
+        data2s = new int[CAPACITY];
+        timeStamps = new long[CAPACITY];
+    }
+
+    /**
+     * @return the number of messages captured since the last clear
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the status byte of a captured message, which includes its channel
+     *
+     * @param i the index of the message, in the order they were sent
+     * @return the status byte of the message
+     */
+    public synchronized int getStatus(int i) {
+        return statuses[checkIndex(i)];
+    }
+
+    /**
+     * @param i the index of the message, in the order they were sent
+     * @return the first data byte of the message, or 0 if it has none
+     */
+    public synchronized int getData1(int i) {
+        return data1s[checkIndex(i)];
+    }
+
+    /**
+     * @param i the index of the message, in the order they were sent
+     * @return the second data byte of the message, or 0 if it has none
+     */
+    public synchronized int getData2(int i) {
+        return data2s[checkIndex(i)];
+    }
+
+    /**
+     * @param i the index of the message, in the order they were sent
+     * @return the time stamp the message was sent with, in microseconds, or -1 if it had none
+     */
+    public synchronized long getTimeStamp(int i) {
+        return timeStamps[checkIndex(i)];
+    }
+
+    /**
+     * Forgets every message captured so far
+     */
+    public synchronized void clear() {
+        count = 0;
+    }
+
+    /*
+     * Synthesizer
+     */
+
+    @Override
+    public Info getDeviceInfo() {
+        return info;
+    }
+
+    @Override
+    public synchronized void open() {
+        open = true;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return System.nanoTime() / 1000;
+    }
+
+    @Override
+    public int getMaxReceivers() {
+        return -1;
+    }
+
+    @Override
+    public int getMaxTransmitters() {
+        return 0;
+    }
+
+    @Override
+    public Receiver getReceiver() {
+        return receiver;
+    }
+
+    @Override
+    public List<Receiver> getReceivers() {
+        return List.of(receiver);
+    }
+
+    @Override
+    public Transmitter getTransmitter() {
+        throw new UnsupportedOperationException("the capturing synthesizer has no transmitters");
+    }
+
+    @Override
+    public List<Transmitter> getTransmitters() {
+        return List.of();
+    }
+
+    @Override
+    public int getMaxPolyphony() {
+        return 64;
+    }
+
+    @Override
+    public long getLatency() {
+        return 0;
+    }
+
+    @Override
+    public MidiChannel[] getChannels() {
+        return new MidiChannel[16];
+    }
+
+    @Override
+    public VoiceStatus[] getVoiceStatus() {
+        return new VoiceStatus[0];
+    }
+
+    @Override
+    public boolean isSoundbankSupported(Soundbank soundbank) {
+        return false;
+    }
+
+    @Override
+    public boolean loadInstrument(Instrument instrument) {
+        return false;
+    }
+
+    @Override
+    public void unloadInstrument(Instrument instrument) {
+    }
+
+    @Override
+    public boolean remapInstrument(Instrument from, Instrument to) {
+        return false;
+    }
+
+    @Override
+    public Soundbank getDefaultSoundbank() {
+        return null;
+    }
+
+    @Override
+    public Instrument[] getAvailableInstruments() {
+        return new Instrument[0];
+    }
+
+    @Override
+    public Instrument[] getLoadedInstruments() {
+        return new Instrument[0];
+    }
+
+    @Override
+    public boolean loadAllInstruments(Soundbank soundbank) {
+        return false;
+    }
+
+    @Override
+    public void unloadAllInstruments(Soundbank soundbank) {
+    }
+
+    @Override
+    public boolean loadInstruments(Soundbank soundbank, Patch[] patchList) {
+        return false;
+    }
+
+    @Override
+    public void unloadInstruments(Soundbank soundbank, Patch[] patchList) {
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Keeps a message, growing the arrays if a test sends more than they were made to hold
+     */
+    private synchronized void capture(MidiMessage message, long timeStamp) {
+        if (count == statuses.length) {
+            statuses = Arrays.copyOf(statuses, count * 2);
+            data1s = Arrays.copyOf(data1s, count * 2);
+            data2s = Arrays.copyOf(data2s, count * 2);
+            timeStamps = Arrays.copyOf(timeStamps, count * 2);
+        }
+        statuses[count] = message.getStatus();
+        if (message instanceof ShortMessage) {
+            data1s[count] = ((ShortMessage) message).getData1();
+            data2s[count] = ((ShortMessage) message).getData2();
+        } else {
+            byte[] bytes = message.getMessage(); // a copy, so only other kinds of message allocate
+            data1s[count] = message.getLength() > 1 ? bytes[1] & 0xFF : 0;
+            data2s[count] = message.getLength() > 2 ? bytes[2] & 0xFF : 0;
+        }
+        timeStamps[count] = timeStamp;
+        count++;
+    }
+
+    /**
+     * Makes sure a message has been captured, so a test reading past the end fails clearly
+     */
+    private int checkIndex(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("message " + i + " of " + count + " captured");
+        }
+        return i;
+    }
+
+}
@@ -0,0 +1,195 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.sound.midi.MidiSystem;
+
+import edu.macalester.graphics.events.Key;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class InputHandlerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void mixerButtonsAreLoggedAndReplayed() throws Exception {
+        File file = dir.resolve("input.log").toFile();
+        MidiManager midiMan = newMidiManager();
+        try {
+            InputHandler input = newInputHandler(midiMan);
+            InputLog log = new InputLog(file);
+            input.setLog(log);
+            input.setMute(1, true, 0);
+            input.setSolo(2, true, 5);
+            input.setVolume(3, 40, 10);
+            input.setPan(3, 127, 15);
+            input.setMute(0, true, 20);
+            log.close();
+        } finally {
+            midiMan.close();
+        }
+
+        MidiManager replayed = newMidiManager();
+        try {
+            ByteBuffer records = InputLog.load(file);
+            assertEquals(5 * InputLog.RECORD_SIZE, records.remaining());
+            new InputReplay(replayed).replay(records, false);
+
+            assertTrue(replayed.isTrackMuted(0));
+            assertTrue(replayed.isTrackMuted(1));
+            assertFalse(replayed.isTrackMuted(2));
+            assertTrue(replayed.isTrackSoloed(2));
+            assertEquals(40, replayed.getTrackVolume(3));
+            assertEquals(127, replayed.getTrackPan(3));
+            assertEquals(MidiManager.DEFAULT_VOLUME, replayed.getTrackVolume(2));
+        } finally {
+            replayed.close();
+        }
+    }
+
+    @Test
+    public void inputLogReadsBackEveryRecord() throws Exception {
+        File file = dir.resolve("input.log").toFile();
+        InputLog log = new InputLog(file);
+        log.write(InputLog.KEY_DOWN, 12, 0);
+        log.write(InputLog.CLICK, InputHandler.RECORD, 7);
+        log.write(InputLog.VOLUME, 3 << 8 | 127, 100_000);
+        log.close();
+
+        ByteBuffer records = InputLog.load(file);
+        assertEquals(3 * InputLog.RECORD_SIZE, records.remaining());
+        int[][] expected = { { InputLog.KEY_DOWN, 12, 0 }, { InputLog.CLICK, InputHandler.RECORD, 7 },
+            { InputLog.VOLUME, 3 << 8 | 127, 100_000 } };
+        long lastTime = 0;
+        for (int[] record : expected) {
+            assertEquals(record[0], records.get());
+            assertEquals(record[1], records.getShort());
+            assertEquals(record[2], records.getInt());
+            long time = records.getLong();
+            assertTrue(time >= lastTime, "times only go forward");
+            lastTime = time;
+        }
+    }
+
+    @Test
+    public void typedKeysAreLoggedByThePitchTheyPlay() throws Exception {
+        File file = dir.resolve("input.log").toFile();
+        MidiManager midiMan = newMidiManager();
+        try {
+            KeyboardManager keyboard = new KeyboardManager(midiMan);
+            InputHandler input = new InputHandler(midiMan, keyboard, new KeyboardLink(keyboard.getKeys()));
+            InputLog log = new InputLog(file);
+            input.setLog(log);
+            input.keyDown(Key.S, 0);
+            input.keyUp(Key.S, 1);
+            input.keyDown(Key.UP_ARROW, 2);
+            input.keyDown(Key.S, 3);
+            input.keyDown(Key.SPACE, 4);
+            log.close();
+
+            int pitch = keyboard.getKeys().get(2).getPitch();
+            int[][] expected = { { InputLog.KEY_DOWN, pitch }, { InputLog.KEY_UP, pitch }, { InputLog.OCTAVE, 1 },
+                { InputLog.KEY_DOWN, pitch + 12 } };
+            ByteBuffer records = InputLog.load(file);
+            assertEquals(expected.length * InputLog.RECORD_SIZE, records.remaining());
+            for (int[] record : expected) {
+                assertEquals(record[0], records.get());
+                assertEquals(record[1], records.getShort());
+                records.getInt();
+                records.getLong();
+            }
+        } finally {
+            midiMan.close();
+        }
+    }
+
+    @Test
+    public void fileThatIsNotAnInputLogIsRejected() throws Exception {
+        File file = dir.resolve("input.log").toFile();
+        Files.write(file.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+
+        assertThrows(IOException.class, () -> InputLog.load(file));
+    }
+
+    @Test
+    public void replayingALogAlwaysGivesTheSameRecording() throws Exception {
+        File file = dir.resolve("input.log").toFile();
+        long recorded;
+        MidiManager midiMan = newMidiManager();
+        try {
+            InputHandler input = newInputHandler(midiMan);
+            InputLog log = new InputLog(file);
+            input.setLog(log);
+            playSession(input);
+            log.close();
+            recorded = midiMan.getSequenceHash();
+        } finally {
+            midiMan.close();
+        }
+
+        for (int i = 0; i < 2; i++) {
+            MidiManager replayed = newMidiManager();
+            try {
+                new InputReplay(replayed).replay(InputLog.load(file), false);
+                assertEquals(recorded, replayed.getSequenceHash(), "replay " + i);
+            } finally {
+                replayed.close();
+            }
+        }
+    }
+
+    /*
+     * Helpers
+     */
+
+    private static MidiManager newMidiManager() throws Exception {
+        return new MidiManager(new CapturingSynthesizer(), MidiSystem.getSequencer(false), AudioProfile.BALANCED);
+    }
+
+    /**
+     * Records two tracks by typing, clicking keys, holding a chord, and using the menus and mixer
+     */
+    private static void playSession(InputHandler input) {
+        int tick = 0;
+        input.selectTrack(1, tick);
+        input.click(InputHandler.RECORD, tick);
+        for (int i = 0; i < 40; i++) {
+            Key key = KeyboardLink.KEY_LIST.get(i % KeyboardLink.KEY_LIST.size());
+            input.keyDown(key, tick += 3);
+            input.keyUp(key, tick += 2);
+        }
+        input.keyDown(Key.UP_ARROW, tick);
+        input.mouseDown(5, tick += 1);
+        input.mouseDown(9, tick += 1);
+        input.click(InputHandler.CHORD, tick);
+        input.mouseUp(5, tick += 4);
+        input.mouseUp(9, tick += 1);
+        input.mouseDown(12, tick += 2);
+        input.mouseUp(12, tick += 6);
+        input.click(InputHandler.CHORD, tick);
+        input.click(InputHandler.STOP, tick);
+
+        input.selectTrack(2, tick);
+        input.selectInstrument(MidiManager.VIOLIN, tick);
+        input.click(InputHandler.RECORD, tick = 0);
+        for (int i = 0; i < 30; i++) {
+            input.mouseDown(i, tick += 4);
+            input.mouseUp(i, tick += 3);
+        }
+        input.click(InputHandler.STOP, tick);
+        input.setVolume(2, 70, tick);
+        input.transform(InputHandler.HUMANIZE, tick);
+    }
+
+    private static InputHandler newInputHandler(MidiManager midiMan) {
+        KeyboardManager keyboard = new KeyboardManager(midiMan);
+        return new InputHandler(midiMan, keyboard, new KeyboardLink(keyboard.getKeys()));
+    }
+
+}
@@ -0,0 +1,148 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class JamLinkTest {
+    private static final int MAGIC = 0x534B4A4D; // the first field of every jam packet
+    private static final int SESSION = 42;
+
+    private List<Integer> played;
+    private JamLink link;
+
+    @BeforeEach
+    public void openLink() throws Exception {
+        played = new ArrayList<>();
+        Receiver sink = new Receiver() {
+            @Override
+            public void send(MidiMessage message, long timeStamp) {
+                played.add(((ShortMessage) message).getData1());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        // nothing is sent, so the peer is never contacted
+        link = new JamLink(0, new InetSocketAddress("localhost", 9), sink);
+    }
+
+    @AfterEach
+    public void closeLink() {
+        link.close();
+    }
+
+    @Test
+    public void packetsInOrderAreAllPlayed() {
+        for (int sequence = 0; sequence < 5; sequence++) {
+            receive(sequence);
+        }
+
+        assertEquals(List.of(0, 1, 2, 3, 4), played);
+        assertEquals(5, link.getReceived());
+        assertEquals(0, link.getLost());
+        assertEquals(0, link.getDuplicates());
+        assertEquals(0, link.getReordered());
+    }
+
+    @Test
+    public void duplicatesAreDroppedAndCounted() {
+        receive(0);
+        receive(1);
+        receive(1);
+        receive(0);
+        receive(2);
+
+        assertEquals(List.of(0, 1, 2), played);
+        assertEquals(3, link.getReceived());
+        assertEquals(2, link.getDuplicates());
+        assertEquals(0, link.getLost());
+    }
+
+    @Test
+    public void packetsOutOfOrderWithinTheWindowArePlayedOnce() {
+        receive(0);
+        receive(3);
+        receive(1);
+        receive(2);
+        receive(2);
+
+        assertEquals(List.of(0, 3, 1, 2), played);
+        assertEquals(4, link.getReceived());
+        assertEquals(0, link.getLost(), "the packets counted as lost turned up");
+        assertEquals(2, link.getReordered());
+        assertEquals(1, link.getDuplicates());
+    }
+
+    @Test
+    public void packetsTooOldForTheWindowAreDropped() {
+        receive(0);
+        receive(100);
+        receive(1);
+
+        assertEquals(List.of(0, 100), played);
+        assertEquals(2, link.getReceived());
+        assertEquals(99, link.getLost());
+        assertEquals(1, link.getDuplicates(), "too old to tell, so it is treated as a duplicate");
+        assertEquals(0, link.getReordered());
+    }
+
+    @Test
+    public void gapInTheSequenceIsCountedAsLost() {
+        receive(0);
+        receive(1);
+        receive(5);
+        receive(6);
+
+        assertEquals(List.of(0, 1, 5, 6), played);
+        assertEquals(4, link.getReceived());
+        assertEquals(3, link.getLost());
+        assertEquals(0, link.getDuplicates());
+    }
+
+    @Test
+    public void packetsThatAreNotJamPacketsAreIgnored() {
+        receive(0);
+        ByteBuffer garbage = ByteBuffer.allocate(JamLink.PACKET_SIZE);
+        garbage.putInt(0x12345678);
+        garbage.rewind();
+        link.accept(garbage, 0);
+        receive(1);
+
+        assertEquals(List.of(0, 1), played);
+        assertEquals(2, link.getReceived());
+        assertTrue(link.getReport().contains("1 malformed"));
+    }
+
+    /*
+     * Helpers
+     */
+
+    /**
+     * Feeds the link the packet with the given sequence number, which is also its note so the notes played
+     * show which packets got through
+     */
+    private void receive(int sequence) {
+        ByteBuffer packet = ByteBuffer.allocate(JamLink.PACKET_SIZE);
+        packet.putInt(MAGIC);
+        packet.putInt(SESSION);
+        packet.putInt(sequence);
+        packet.putLong(1000);
+        packet.put((byte) ShortMessage.NOTE_ON);
+        packet.put((byte) sequence);
+        packet.put((byte) 64);
+        packet.flip();
+        link.accept(packet, 1500);
+    }
+
+}
@@ -0,0 +1,301 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MidiManagerTest {
+    private CapturingSynthesizer synth;
+    private Sequencer sequencer;
+    private MidiManager midiMan;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        synth = new CapturingSynthesizer();
+        sequencer = MidiSystem.getSequencer(false); // not connected to the default synthesizer
+        midiMan = new MidiManager(synth, sequencer, AudioProfile.BALANCED);
+        synth.clear();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        midiMan.close();
+    }
+
+    @Test
+    public void notesReachTheSynthesizerInTheOrderTheyArePlayed() {
+        midiMan.playPitch(60, 0);
+        midiMan.playPitch(64, 0);
+        midiMan.stopPitch(60, 0);
+        midiMan.stopPitch(64, 0);
+
+        assertEquals(4, synth.getCount());
+        assertMessage(0, ShortMessage.NOTE_ON, 60, 64);
+        assertMessage(1, ShortMessage.NOTE_ON, 64, 64);
+        assertMessage(2, ShortMessage.NOTE_OFF, 60, 0);
+        assertMessage(3, ShortMessage.NOTE_OFF, 64, 0);
+    }
+
+    @Test
+    public void notesPlayOnTheActiveTracksChannel() {
+        midiMan.setActiveTrack(2);
+        midiMan.playPitch(60, 0);
+        midiMan.stopPitch(60, 0);
+
+        assertEquals(2, synth.getCount());
+        assertEquals(ShortMessage.NOTE_ON | 2, synth.getStatus(0));
+        assertEquals(ShortMessage.NOTE_OFF | 2, synth.getStatus(1));
+    }
+
+    @Test
+    public void chordNotesShareOneTimeStamp() {
+        int[] chord = { 60, 64, 67 };
+        midiMan.playPitches(chord, chord.length, 0);
+
+        assertEquals(3, synth.getCount());
+        for (int i = 0; i < chord.length; i++) {
+            assertMessage(i, ShortMessage.NOTE_ON, chord[i], 64);
+            assertEquals(synth.getTimeStamp(0), synth.getTimeStamp(i));
+        }
+        assertNotEquals(-1, synth.getTimeStamp(0));
+    }
+
+    @Test
+    public void externalInputKeepsVelocityAndStopsNotesWithNoVelocity() throws Exception {
+        VirtualTransmitter controller = new VirtualTransmitter();
+        midiMan.connectInput(controller);
+        controller.send(new ShortMessage(ShortMessage.NOTE_ON, 5, 60, 100));
+        controller.send(new ShortMessage(ShortMessage.NOTE_ON, 5, 60, 0));
+        controller.send(new ShortMessage(ShortMessage.ACTIVE_SENSING));
+
+        assertEquals(2, synth.getCount());
+        assertMessage(0, ShortMessage.NOTE_ON, 60, 100);
+        assertMessage(1, ShortMessage.NOTE_OFF, 60, 0);
+    }
+
+    @Test
+    public void notesPlayedWhileNotRecordingAreNotKept() {
+        midiMan.playPitch(60, 10);
+        midiMan.stopPitch(60, 20);
+
+        assertTrue(midiMan.isEmpty(0));
+        assertEquals(0, midiMan.getNoteIndex(0).size());
+    }
+
+    @Test
+    public void recordingKeepsEveryNoteAtItsTick() {
+        recordScale(0);
+
+        assertFalse(midiMan.isEmpty(0));
+        assertTrue(midiMan.isEmpty(1));
+        List<Long> found = new ArrayList<>();
+        midiMan.getNoteIndex(0).query(0, 1000, (id, pitch, start, end) -> {
+            found.add((long) pitch);
+            found.add(start);
+            found.add(end);
+        });
+        assertEquals(List.of(60L, 10L, 20L, 62L, 20L, 30L, 64L, 30L, 40L), found);
+    }
+
+    @Test
+    public void savedRecordingReadsBackTheSameNotes() throws Exception {
+        recordScale(0);
+        String filename = dir.resolve("take").toString();
+        midiMan.saveRecording(filename);
+
+        Sequence saved = MidiSystem.getSequence(new File(filename + ".mid"));
+        assertEquals(Sequence.SMPTE_30, saved.getDivisionType());
+        assertEquals(2, saved.getResolution());
+        assertEquals(List.of("144 60 10", "128 60 20", "144 62 20", "128 62 30", "144 64 30", "128 64 40"),
+            notesOf(saved.getTracks()));
+    }
+
+    @Test
+    public void projectRoundTripKeepsEveryTrack() throws Exception {
+        recordScale(0);
+        midiMan.setActiveTrack(2);
+        midiMan.selectInstrument(MidiManager.VIOLIN, 0);
+        recordScale(2);
+        String filename = dir.resolve("song").toString();
+        midiMan.saveProject(filename);
+
+        MidiManager reopened = new MidiManager(new CapturingSynthesizer(), MidiSystem.getSequencer(false),
+            AudioProfile.BALANCED);
+        try {
+            reopened.openProject(filename);
+            assertEquals(2, reopened.getActiveTrack());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(midiMan.isEmpty(i), reopened.isEmpty(i), "track " + i);
+                reopened.setActiveTrack(i); // decodes the track
+            }
+            assertEquals(midiMan.getSequenceHash(), reopened.getSequenceHash());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void noteIndexOfAnUndecodedProjectTrackHasItsNotes() throws Exception {
+        recordScale(0);
+        midiMan.setActiveTrack(2);
+        String filename = dir.resolve("song").toString();
+        midiMan.saveProject(filename);
+
+        MidiManager reopened = new MidiManager(new CapturingSynthesizer(), MidiSystem.getSequencer(false),
+            AudioProfile.BALANCED);
+        try {
+            reopened.openProject(filename); // only track 2, the active one, is decoded
+            assertEquals(midiMan.getNoteIndex(0).size(), reopened.getNoteIndex(0).size());
+            assertTrue(reopened.getNoteIndex(0).size() > 0);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void inputFromAnotherThreadIsRecordedConsistently() throws Exception {
+        VirtualTransmitter transmitter = new VirtualTransmitter();
+        midiMan.connectInput(transmitter);
+        midiMan.startRecording();
+        int noteCount = 5_000;
+        Thread controller = new Thread(() -> {
+            try {
+                for (int i = 0; i < noteCount; i++) {
+                    transmitter.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 36 + i % 61, 64));
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        controller.start();
+        int changes = 0;
+        int[] instruments = { MidiManager.PIANO, MidiManager.GUITAR, MidiManager.VIOLIN, MidiManager.SYNTH };
+        while (controller.isAlive()) {
+            midiMan.selectInstrument(instruments[changes++ % 4], 0);
+        }
+        controller.join();
+        midiMan.stopRecording();
+        String filename = dir.resolve("song").toString();
+        midiMan.saveProject(filename);
+
+        MidiManager reopened = new MidiManager(new CapturingSynthesizer(), MidiSystem.getSequencer(false),
+            AudioProfile.BALANCED);
+        try {
+            reopened.openProject(filename);
+            for (int i = 0; i < 4; i++) {
+                reopened.setActiveTrack(i); // decodes the track
+            }
+            assertEquals(noteCount, reopened.getNoteIndex(0).size());
+            assertEquals(midiMan.getSequenceHash(), reopened.getSequenceHash(),
+                "the saved track matches what was recorded, with " + changes + " instrument changes in between");
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void inputIsPlayedAndRecordedWhileTheManagerIsBusy() throws Exception {
+        VirtualTransmitter transmitter = new VirtualTransmitter();
+        midiMan.connectInput(transmitter);
+        midiMan.startRecording();
+        Thread controller = new Thread(() -> {
+            try {
+                transmitter.send(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        synchronized (midiMan) { // held the way a slow save, transform or audio profile change holds it
+            controller.start();
+            controller.join(1000);
+            assertFalse(controller.isAlive(), "the note waited for the MidiManager's lock");
+        }
+        midiMan.stopRecording();
+
+        int played = 0;
+        for (int i = 0; i < synth.getCount(); i++) {
+            // the sequencer sends its own controller resets when recording starts
+            played += synth.getStatus(i) == ShortMessage.NOTE_ON && synth.getData1(i) == 60 ? 1 : 0;
+        }
+        assertEquals(1, played);
+        assertEquals(1, midiMan.getNoteIndex(0).size());
+    }
+
+    @Test
+    public void mutingATrackDoesNotStopPlayback() {
+        recordScale(0);
+        midiMan.playSequence();
+        Sequence loaded = sequencer.getSequence();
+        midiMan.setTrackMute(0, true);
+
+        assertTrue(sequencer.isRunning());
+        assertSame(loaded, sequencer.getSequence());
+        assertTrue(midiMan.isTrackMuted(0));
+        boolean anyMuted = false;
+        for (int i = 0; i < loaded.getTracks().length; i++) {
+            anyMuted |= sequencer.getTrackMute(i);
+        }
+        assertTrue(anyMuted);
+    }
+
+    /*
+     * Helpers
+     */
+
+    /**
+     * Records three notes on a track, each starting as the last one stops
+     */
+    private void recordScale(int track) {
+        midiMan.setActiveTrack(track);
+        midiMan.startRecording();
+        int[] pitches = { 60, 62, 64 };
+        for (int i = 0; i < pitches.length; i++) {
+            midiMan.playPitch(pitches[i], 10 + i * 10);
+            midiMan.stopPitch(pitches[i], 20 + i * 10);
+        }
+        midiMan.stopRecording();
+    }
+
+    /**
+     * Lists the notes in every track as "status pitch tick", leaving out everything else. A cleared
+     * track is recreated at the end of the sequence, so the tracks aren't in the order of their indexes
+     */
+    private static List<String> notesOf(Track[] tracks) {
+        List<String> notes = new ArrayList<>();
+        for (Track track : tracks) {
+            for (int i = 0; i < track.size(); i++) {
+                MidiEvent event = track.get(i);
+                if (event.getMessage() instanceof ShortMessage) {
+                    ShortMessage msg = (ShortMessage) event.getMessage();
+                    if (msg.getCommand() == ShortMessage.NOTE_ON || msg.getCommand() == ShortMessage.NOTE_OFF) {
+                        notes.add(msg.getStatus() + " " + msg.getData1() + " " + event.getTick());
+                    }
+                }
+            }
+        }
+        return notes;
+    }
+
+    private void assertMessage(int i, int command, int pitch, int velocity) {
+        assertEquals(command, synth.getStatus(i) & 0xF0, "command of message " + i);
+        assertEquals(pitch, synth.getData1(i), "pitch of message " + i);
+        assertEquals(velocity, synth.getData2(i), "velocity of message " + i);
+    }
+
+}
@@ -0,0 +1,179 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.jupiter.api.Test;
+
+public class NoteIndexTest {
+    private static final int EVENTS = 30_000;
+    private static final int QUERIES_PER_CHECK = 200;
+
+    /**
+     * A note as the brute force reference keeps it
+     */
+    private static class Note {
+        int pitch;
+        long start;
+        long end = NoteIndex.OPEN;
+
+        Note(int pitch, long start) {
+            this.pitch = pitch;
+            this.start = start;
+        }
+
+        boolean sounds(long from, long to) {
+            return start < to && (end == NoteIndex.OPEN || Math.max(end, start + 1) > from);
+        }
+    }
+
+    @Test
+    public void queriesFindExactlyTheNotesABruteForceSearchFinds() throws Exception {
+        Random random = new Random(42);
+        NoteIndex index = new NoteIndex();
+        List<Note> notes = new ArrayList<>();
+        Note[] open = new Note[128];
+        long tick = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            tick += random.nextInt(4) == 0 ? random.nextInt(200) : random.nextInt(3);
+            addRandomEvent(random, index, notes, open, tick);
+            if (i % 3_000 == 0 || i == EVENTS - 1) {
+                checkQueries(random, index, notes, tick);
+            }
+        }
+        assertEquals(notes.size(), index.size());
+    }
+
+    @Test
+    public void visitSinceFindsOnlyTheNotesAddedSinceTheLastQuery() throws Exception {
+        Random random = new Random(7);
+        NoteIndex index = new NoteIndex();
+        List<Note> notes = new ArrayList<>();
+        Note[] open = new Note[128];
+        long tick = 0;
+        int seen = index.query(0, 1, (id, pitch, start, end) -> {
+        });
+        for (int i = 0; i < EVENTS; i++) {
+            tick += random.nextInt(5);
+            addRandomEvent(random, index, notes, open, tick);
+            if (i % 50 == 0) {
+                long from = Math.max(0, tick - random.nextInt(2_000));
+                long to = tick + 1 + random.nextInt(100);
+                List<Integer> found = new ArrayList<>();
+                int now = index.visitSince(seen, from, to, (id, pitch, start, end) -> {
+                    found.add(id);
+                    assertEquals(notes.get(id).pitch, pitch);
+                    assertEquals(notes.get(id).start, start);
+                    assertEquals(notes.get(id).end, end);
+                });
+                List<Integer> expected = new ArrayList<>();
+                for (int id = seen; id < notes.size(); id++) {
+                    if (notes.get(id).sounds(from, to)) {
+                        expected.add(id);
+                    }
+                }
+                assertEquals(expected, found);
+                assertEquals(notes.size(), now);
+                seen = now;
+            }
+        }
+    }
+
+    @Test
+    public void rebuildIndexesATrackTheSameAsAddingItsEvents() throws Exception {
+        Random random = new Random(3);
+        NoteIndex added = new NoteIndex();
+        List<Note> notes = new ArrayList<>();
+        Note[] open = new Note[128];
+        Track track = new Sequence(Sequence.SMPTE_30, 2, 1).getTracks()[0];
+        long tick = 0;
+        for (int i = 0; i < 5_000; i++) {
+            tick += random.nextInt(10);
+            ShortMessage msg = addRandomEvent(random, added, notes, open, tick);
+            track.add(new MidiEvent(msg, tick));
+        }
+
+        NoteIndex rebuilt = new NoteIndex();
+        int generation = rebuilt.getGeneration();
+        rebuilt.rebuild(track);
+
+        assertNotEquals(generation, rebuilt.getGeneration());
+        assertEquals(added.size(), rebuilt.size());
+        for (int id = 0; id < notes.size(); id++) {
+            assertEquals(notes.get(id).end, rebuilt.getEnd(id));
+        }
+    }
+
+    /*
+     * Helpers
+     */
+
+    /**
+     * Adds a random note on, note off or note on with no velocity at a tick, to both the index and the
+     * reference list, and returns its message
+     */
+    private static ShortMessage addRandomEvent(Random random, NoteIndex index, List<Note> notes, Note[] open,
+        long tick) throws Exception {
+        int pitch = 36 + random.nextInt(48);
+        int kind = random.nextInt(10);
+        ShortMessage msg;
+        if (kind < 5) {
+            msg = new ShortMessage(ShortMessage.NOTE_ON, 0, pitch, 1 + random.nextInt(127));
+            close(open, pitch, tick); // a note played again before it was stopped
+            open[pitch] = new Note(pitch, tick);
+            notes.add(open[pitch]);
+        } else {
+            int command = kind < 8 ? ShortMessage.NOTE_OFF : ShortMessage.NOTE_ON;
+            msg = new ShortMessage(command, 0, pitch, 0);
+            close(open, pitch, tick);
+        }
+        index.add(msg, tick);
+        return msg;
+    }
+
+    /**
+     * Ends the reference's open note at a pitch, if there is one
+     */
+    private static void close(Note[] open, int pitch, long tick) {
+        if (open[pitch] != null) {
+            open[pitch].end = tick;
+            open[pitch] = null;
+        }
+    }
+
+    /**
+     * Runs random query windows over the index and checks that each finds every note the reference says
+     * sounds in the window, once each, with the right pitch, start and end
+     */
+    private static void checkQueries(Random random, NoteIndex index, List<Note> notes, long lastTick) {
+        for (int q = 0; q < QUERIES_PER_CHECK; q++) {
+            long from = (long) (random.nextDouble() * (lastTick + 500));
+            long to = from + 1 + random.nextInt(random.nextBoolean() ? 64 : 5_000);
+            List<Integer> found = new ArrayList<>();
+            int size = index.query(from, to, (id, pitch, start, end) -> {
+                found.add(id);
+                Note note = notes.get(id);
+                assertEquals(note.pitch, pitch);
+                assertEquals(note.start, start);
+                assertEquals(note.end, end);
+            });
+            List<Integer> expected = new ArrayList<>();
+            for (int id = 0; id < notes.size(); id++) {
+                if (notes.get(id).sounds(from, to)) {
+                    expected.add(id);
+                }
+            }
+            Collections.sort(found);
+            assertEquals(expected, found, "window " + from + " to " + to);
+            assertEquals(notes.size(), size);
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.sound.midi.MidiSystem;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class NotePathBudgetTest {
+    // Budgets are several times what a laptop measures, so only a real regression on a slow CI machine fails
+    private static final double MILLIS_PER_10K_EVENTS = 100;
+    private static final double MILLIS_PER_10K_CHORD_EVENTS = 50;
+    private static final double BYTES_PER_PLAYED_EVENT = 256;
+    private static final double BYTES_PER_RECORDED_EVENT = 512;
+
+    private static final int EVENTS = 10_000;
+    private static final int WARMUP_ROUNDS = 5;
+    // the best timed round is kept, so a collection or a growing track doesn't fail the test on its own
+    private static final int TIMED_ROUNDS = 5;
+
+    private CapturingSynthesizer synth;
+    private MidiManager midiMan;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        synth = new CapturingSynthesizer();
+        midiMan = new MidiManager(synth, MidiSystem.getSequencer(false), AudioProfile.BALANCED);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        midiMan.close();
+    }
+
+    @Test
+    public void recordingTenThousandEventsStaysWithinBudget() {
+        midiMan.startRecording();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            playNotes(i * EVENTS);
+        }
+        synth.clear();
+
+        double millis = Double.MAX_VALUE;
+        for (int i = WARMUP_ROUNDS; i < WARMUP_ROUNDS + TIMED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            playNotes(i * EVENTS);
+            millis = Math.min(millis, (System.nanoTime() - start) / 1e6);
+        }
+        midiMan.stopRecording();
+
+        assertTrue(synth.getCount() >= TIMED_ROUNDS * EVENTS, "every event reaches the synthesizer");
+        assertEquals((WARMUP_ROUNDS + TIMED_ROUNDS) * EVENTS / 2, midiMan.getNoteIndex(0).size());
+        assertTrue(millis < MILLIS_PER_10K_EVENTS,
+            String.format("10k recorded events took %.1f ms, budget %.0f ms", millis, MILLIS_PER_10K_EVENTS));
+    }
+
+    @Test
+    public void playingTenThousandChordEventsStaysWithinBudget() {
+        int[] chord = { 60, 64, 67, 71 };
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            playChords(chord);
+        }
+        synth.clear();
+
+        double millis = Double.MAX_VALUE;
+        for (int i = 0; i < TIMED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            playChords(chord);
+            millis = Math.min(millis, (System.nanoTime() - start) / 1e6);
+        }
+
+        assertEquals(TIMED_ROUNDS * EVENTS, synth.getCount());
+        assertTrue(millis < MILLIS_PER_10K_CHORD_EVENTS,
+            String.format("10k chord events took %.1f ms, budget %.0f ms", millis, MILLIS_PER_10K_CHORD_EVENTS));
+    }
+
+    @Test
+    public void playingANoteAllocatesWithinBudget() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            playNotes(i * EVENTS);
+        }
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        playNotes(0);
+        double perEvent = (threads.getCurrentThreadAllocatedBytes() - before) / (double) EVENTS;
+
+        assertTrue(perEvent < BYTES_PER_PLAYED_EVENT,
+            String.format("%.0f bytes per played event, budget %.0f", perEvent, BYTES_PER_PLAYED_EVENT));
+    }
+
+    @Test
+    public void recordingANoteAllocatesWithinBudget() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        midiMan.startRecording();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            playNotes(i * EVENTS);
+        }
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        playNotes(WARMUP_ROUNDS * EVENTS);
+        double perEvent = (threads.getCurrentThreadAllocatedBytes() - before) / (double) EVENTS;
+        midiMan.stopRecording();
+
+        assertTrue(perEvent < BYTES_PER_RECORDED_EVENT,
+            String.format("%.0f bytes per recorded event, budget %.0f", perEvent, BYTES_PER_RECORDED_EVENT));
+    }
+
+    /*
+     * Helpers
+     */
+
+    /**
+     * Plays and stops notes one tick apart, making 10k events in all
+     */
+    private void playNotes(int firstTick) {
+        for (int i = 0; i < EVENTS / 2; i++) {
+            int pitch = 36 + i % 61;
+            midiMan.playPitch(pitch, firstTick + i * 2);
+            midiMan.stopPitch(pitch, firstTick + i * 2 + 1);
+        }
+    }
+
+    /**
+     * Plays and stops a chord over and over, making 10k events in all
+     */
+    private void playChords(int[] chord) {
+        for (int i = 0; i < EVENTS / (chord.length * 2); i++) {
+            midiMan.playPitches(chord, chord.length, i);
+            midiMan.stopPitches(chord, chord.length, i);
+        }
+    }
+
+    /**
+     * Gets the JVM's per-thread allocation counter, skipping the test on JVMs that don't have one
+     */
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean, "no per-thread allocation counter");
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled(),
+            "per-thread allocation counting is off");
+        return counter;
+    }
+
+}
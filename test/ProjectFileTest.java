@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ProjectFileTest {
+    private static final int DIRECTORY = 32; // where the first track's entry starts
+    private static final int ENTRY_SIZE = 32;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void headerAndTracksReadBack() throws Exception {
+        File file = writeProject(2);
+
+        ProjectFile project = new ProjectFile(file);
+        try {
+            assertEquals(4, project.getNumTracks());
+            assertEquals(2, project.getActiveTrack());
+            assertEquals(Sequence.SMPTE_30, project.getDivisionType(), 0);
+            assertEquals(2, project.getResolution());
+            assertEquals(MidiManager.VIOLIN, project.getInstrument(1));
+            assertEquals(2, project.getEventCount(1));
+            assertEquals(20, project.getLastTick(1));
+            assertEquals(0, project.getEventCount(0));
+            assertEquals(2, project.decodeTrack(1).size());
+        } finally {
+            project.close();
+        }
+    }
+
+    @Test
+    public void activeTrackOutOfRangeIsRejected() throws Exception {
+        File file = writeProject(7);
+
+        assertThrows(IOException.class, () -> new ProjectFile(file));
+    }
+
+    @Test
+    public void damagedDirectoryIsRejected() throws Exception {
+        File file = writeProject(1);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(DIRECTORY + ENTRY_SIZE + 16); // the event count of track 1
+            raf.writeInt(3);
+        }
+
+        IOException e = assertThrows(IOException.class, () -> new ProjectFile(file));
+        assertTrue(e.getMessage().contains("checksum"), e.getMessage());
+    }
+
+    @Test
+    public void savingOverAProjectReplacesItWithoutLeavingATemporaryFile() throws Exception {
+        File file = writeProject(1);
+        writeProject(3);
+
+        assertArrayEquals(new String[] { file.getName() }, dir.toFile().list());
+        ProjectFile project = new ProjectFile(file);
+        assertEquals(3, project.getActiveTrack());
+        project.close();
+    }
+
+    @Test
+    public void damagedActiveTrackLeavesTheCurrentTracksAlone() throws Exception {
+        File file = writeProject(1);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long last = raf.length() - 1; // inside the block of track 1, the last one with events
+            raf.seek(last);
+            int b = raf.read();
+            raf.seek(last);
+            raf.write(b ^ 0xFF);
+        }
+        MidiManager midiMan = new MidiManager(new CapturingSynthesizer(), MidiSystem.getSequencer(false),
+            AudioProfile.BALANCED);
+        try {
+            midiMan.setActiveTrack(3);
+            midiMan.startRecording();
+            midiMan.playPitch(60, 10);
+            midiMan.stopPitch(60, 20);
+            midiMan.stopRecording();
+            long before = midiMan.getSequenceHash();
+
+            String filename = file.getPath();
+            midiMan.openProject(filename.substring(0, filename.length() - ProjectFile.EXTENSION.length()));
+
+            assertEquals(3, midiMan.getActiveTrack());
+            assertEquals(before, midiMan.getSequenceHash());
+        } finally {
+            midiMan.close();
+        }
+    }
+
+    /*
+     * Helpers
+     */
+
+    /**
+     * Writes a project whose track 1 has a violin note, with the given index saved as the active track
+     */
+    private File writeProject(int activeTrack) throws Exception {
+        Sequence sequence = new Sequence(Sequence.SMPTE_30, 2, 4);
+        Track[] tracks = sequence.getTracks();
+        tracks[1].add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 1, 60, 64), 10));
+        tracks[1].add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 1, 60, 0), 20));
+        int[] instruments = { MidiManager.PIANO, MidiManager.VIOLIN, MidiManager.PIANO, MidiManager.PIANO };
+        File file = dir.resolve("song" + ProjectFile.EXTENSION).toFile();
+        ProjectFile.write(file, tracks, instruments, activeTrack, sequence.getDivisionType(), sequence.getResolution(),
+            false);
+        return file;
+    }
+
+}
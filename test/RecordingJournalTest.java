@@ -0,0 +1,206 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.ShortMessage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RecordingJournalTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void recordsAreRecoveredInTheOrderTheyWereAppended() throws Exception {
+        File file = dir.resolve("take.journal").toFile();
+        RecordingJournal journal = new RecordingJournal(file);
+        journal.append(0, new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 64), 10);
+        journal.appendClear(1);
+        journal.appendProject(new File(dir.toFile(), "song.skp"));
+        journal.append(2, new ShortMessage(ShortMessage.NOTE_OFF, 2, 61, 0), 20);
+        journal.close();
+
+        List<String> recovered = recover(file);
+        assertEquals(List.of("event 0 144 60 64 10", "clear 1", "project " + new File(dir.toFile(), "song.skp"),
+            "event 2 130 61 0 20"), recovered);
+    }
+
+    @Test
+    public void transformedEventsAreMarkedAndKeepWhatWasPlayed() throws Exception {
+        File file = dir.resolve("take.journal").toFile();
+        RecordingJournal journal = new RecordingJournal(file);
+        ShortMessage played = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 64);
+        ShortMessage shifted = new ShortMessage(ShortMessage.NOTE_ON, 0, 72, 64);
+        journal.append(0, played, 10, MidiTransform.pack(10, played.getStatus(), 60, 64));
+        journal.append(0, shifted, 10, MidiTransform.pack(10, played.getStatus(), 60, 64));
+        journal.append(1, shifted, 12, MidiTransform.DROP);
+        journal.appendRaw(2, MidiTransform.pack(14, played.getStatus(), 60, 64));
+        journal.appendReshape(3);
+        journal.close();
+
+        assertEquals(List.of("event 0 144 60 64 10", "derived 0 144 72 64 10", "raw 0 144 60 64 10",
+            "derived 1 144 72 64 12", "raw 2 144 60 64 14", "reshape 3"), recover(file));
+    }
+
+    @Test
+    public void appendsAfterCloseAreIgnored() throws Exception {
+        File file = dir.resolve("take.journal").toFile();
+        RecordingJournal journal = new RecordingJournal(file);
+        journal.append(0, new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 64), 10);
+        journal.close();
+        journal.append(0, new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 0), 20);
+        journal.appendClear(0);
+        journal.reset();
+        journal.commit();
+        journal.close();
+
+        assertEquals(List.of("event 0 144 60 64 10"), recover(file));
+    }
+
+    @Test
+    public void resetForgetsEverythingAppended() throws Exception {
+        File file = dir.resolve("take.journal").toFile();
+        RecordingJournal journal = new RecordingJournal(file);
+        journal.append(0, new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 64), 10);
+        journal.appendProject(new File(dir.toFile(), "a project with a long enough name to need padding.skp"));
+        journal.reset();
+        journal.appendClear(3);
+        journal.close();
+
+        assertEquals(List.of("clear 3"), recover(file));
+    }
+
+    @Test
+    public void restartKeepsWhatWasAppendedAfterTheMark() throws Exception {
+        File file = dir.resolve("take.journal").toFile();
+        File project = new File(dir.toFile(), "song.skp");
+        RecordingJournal journal = new RecordingJournal(file);
+        journal.append(0, new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 64), 10);
+        int mark = journal.mark();
+        journal.append(1, new ShortMessage(ShortMessage.NOTE_OFF, 1, 61, 0), 20);
+        journal.appendClear(2);
+        journal.restart(mark, project);
+        journal.append(3, new ShortMessage(ShortMessage.NOTE_ON, 3, 62, 64), 30);
+        journal.close();
+
+        assertEquals(List.of("project " + project, "event 1 129 61 0 20", "clear 2", "event 3 147 62 64 30"),
+            recover(file));
+    }
+
+    @Test
+    public void journalGrowsPastItsInitialSize() throws Exception {
+        File file = dir.resolve("take.journal").toFile();
+        RecordingJournal journal = new RecordingJournal(file);
+        ShortMessage msg = new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 64);
+        int count = 300_000; // more than fit in the first megabyte
+        for (int i = 0; i < count; i++) {
+            journal.append(0, msg, i);
+        }
+        journal.close();
+
+        List<String> recovered = recover(file);
+        assertEquals(count, recovered.size());
+        assertEquals("event 0 144 60 64 " + (count - 1), recovered.get(count - 1));
+    }
+
+    @Test
+    public void recoveryKeepsTracksOfAProjectThatWereNeverDecoded() throws Exception {
+        File journalFile = dir.resolve("take.journal").toFile();
+        String project = dir.resolve("song").toString();
+        MidiManager midiMan = newMidiManager();
+        midiMan.openJournal(journalFile);
+        recordScale(midiMan, 0, 60);
+        recordScale(midiMan, 2, 70);
+        midiMan.saveProject(project);
+        midiMan.openProject(project); // only track 2, the active one, is decoded
+        recordScale(midiMan, 1, 80);
+        for (int i = 0; i < 4; i++) {
+            midiMan.setActiveTrack(i);
+        }
+        long expected = midiMan.getSequenceHash();
+        midiMan.close(); // leaves the journal unsaved, as if the app had been killed
+
+        MidiManager recovered = newMidiManager();
+        try {
+            assertTrue(recovered.openJournal(journalFile) > 0);
+            assertFalse(recovered.isEmpty(0), "track 0 comes back from the project");
+            for (int i = 0; i < 4; i++) {
+                recovered.setActiveTrack(i);
+            }
+            assertEquals(expected, recovered.getSequenceHash());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    /*
+     * Helpers
+     */
+
+    /**
+     * Reopens a journal and lists what it recovers, one string per record
+     */
+    private static List<String> recover(File file) throws Exception {
+        List<String> records = new ArrayList<>();
+        RecordingJournal journal = new RecordingJournal(file);
+        journal.recover(new RecordingJournal.Replayer() {
+            @Override
+            public void clear(int track) {
+                records.add("clear " + track);
+            }
+
+            @Override
+            public void event(int track, ShortMessage msg, long tick) {
+                records.add("event " + track + " " + msg.getStatus() + " " + msg.getData1() + " " + msg.getData2()
+                    + " " + tick);
+            }
+
+            @Override
+            public void project(File project) {
+                records.add("project " + project);
+            }
+
+            @Override
+            public void derived(int track, ShortMessage msg, long tick) {
+                records.add("derived " + track + " " + msg.getStatus() + " " + msg.getData1() + " " + msg.getData2()
+                    + " " + tick);
+            }
+
+            @Override
+            public void raw(int track, ShortMessage msg, long tick) {
+                records.add("raw " + track + " " + msg.getStatus() + " " + msg.getData1() + " " + msg.getData2() + " "
+                    + tick);
+            }
+
+            @Override
+            public void reshape(int track) {
+                records.add("reshape " + track);
+            }
+        });
+        journal.close();
+        return records;
+    }
+
+    private static MidiManager newMidiManager() throws Exception {
+        return new MidiManager(new CapturingSynthesizer(), MidiSystem.getSequencer(false), AudioProfile.BALANCED);
+    }
+
+    /**
+     * Records three notes on a track, each starting as the last one stops
+     */
+    private static void recordScale(MidiManager midiMan, int track, int firstPitch) {
+        midiMan.setActiveTrack(track);
+        midiMan.startRecording();
+        for (int i = 0; i < 3; i++) {
+            midiMan.playPitch(firstPitch + i, 10 + i * 10);
+            midiMan.stopPitch(firstPitch + i, 20 + i * 10);
+        }
+        midiMan.stopRecording();
+    }
+
+}
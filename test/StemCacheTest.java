@@ -0,0 +1,176 @@
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.ShortMessage;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StemCacheTest {
+    private static final int STEM_SIZE = 1000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void stemsAreKeptByContentAndInstrument() {
+        StemCache cache = new StemCache(10 * STEM_SIZE, null, 0);
+        cache.put(1, MidiManager.PIANO, stem(1));
+
+        assertNotNull(cache.get(1, MidiManager.PIANO));
+        assertNull(cache.get(1, MidiManager.VIOLIN), "a different instrument needs its own stem");
+        assertNull(cache.get(2, MidiManager.PIANO), "different content needs its own stem");
+        assertEquals(1, cache.get(1, MidiManager.PIANO).getPcm().get(0));
+    }
+
+    @Test
+    public void leastRecentlyUsedStemIsDroppedOverBudget() {
+        StemCache cache = new StemCache(3 * STEM_SIZE, null, 0);
+        cache.put(1, 0, stem(1));
+        cache.put(2, 0, stem(2));
+        cache.put(3, 0, stem(3));
+        cache.get(1, 0); // now 2 is the least recently used
+        cache.put(4, 0, stem(4));
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get(2, 0));
+        assertNotNull(cache.get(1, 0));
+        assertNotNull(cache.get(4, 0));
+        assertEquals(3 * STEM_SIZE, cache.getMemoryUsed());
+    }
+
+    @Test
+    public void stemBiggerThanTheBudgetIsNotKept() {
+        StemCache cache = new StemCache(STEM_SIZE / 2, null, 0);
+
+        assertFalse(cache.put(1, 0, stem(1)));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getMemoryUsed());
+    }
+
+    @Test
+    public void stemsOverTheMemoryBudgetSpillToMappedFiles() {
+        StemCache cache = new StemCache(2 * STEM_SIZE, dir.toFile(), 2 * STEM_SIZE);
+        cache.put(1, 0, stem(1));
+        cache.put(2, 0, stem(2));
+        cache.put(3, 0, stem(3));
+
+        assertEquals(3, cache.size());
+        assertTrue(cache.get(1, 0).isSpilled());
+        assertFalse(cache.get(3, 0).isSpilled());
+        assertEquals(2 * STEM_SIZE, cache.getMemoryUsed());
+        assertEquals(STEM_SIZE, cache.getSpillUsed());
+        ByteBuffer spilled = cache.get(1, 0).getPcm();
+        assertEquals(STEM_SIZE, spilled.capacity());
+        assertEquals(1, spilled.get(STEM_SIZE - 1));
+    }
+
+    @Test
+    public void spilledStemsAreDroppedOverTheSpillBudget() {
+        StemCache cache = new StemCache(STEM_SIZE, dir.toFile(), 2 * STEM_SIZE);
+        for (int i = 1; i <= 4; i++) {
+            cache.put(i, 0, stem(i));
+        }
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get(1, 0));
+        assertTrue(cache.get(2, 0).isSpilled());
+        assertEquals(2 * STEM_SIZE, cache.getSpillUsed());
+        assertEquals(2, dir.toFile().list().length, "the dropped stem's spill file is deleted");
+
+        cache.clear();
+        assertEquals(0, cache.getSpillUsed());
+        assertEquals(0, dir.toFile().list().length);
+    }
+
+    @Test
+    public void renderedNoteStartsAtItsTick() throws Exception {
+        assumeTrue(StemRenderer.isAvailable(), "offline rendering needs --add-exports java.desktop/com.sun.media.sound");
+        StemRenderer renderer = new StemRenderer(AudioProfile.BALANCED);
+        double microsPerTick = 1e6 / 60; // 30 frames per second and 2 ticks per frame
+        List<MidiEvent> events = List.of(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 1, 60, 100), 60),
+            new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 1, 60, 0), 90));
+
+        ByteBuffer pcm = ByteBuffer.wrap(renderer.render(events, 1, MidiManager.PIANO, microsPerTick))
+            .order(java.nio.ByteOrder.LITTLE_ENDIAN);
+
+        int frameSize = renderer.getFormat().getFrameSize();
+        int oneSecond = (int) renderer.getFormat().getFrameRate();
+        assertTrue(pcm.capacity() / frameSize >= oneSecond * 3 / 2, "the stem lasts until the note has rung out");
+        assertEquals(0, peak(pcm, 0, oneSecond - oneSecond / 100, frameSize), "silent before the note");
+        assertTrue(peak(pcm, oneSecond, oneSecond * 3 / 2, frameSize) > 1000, "sounding once the note starts");
+    }
+
+    @Test
+    public void stemsAreMixedIntoTheSynthesizersOwnSamples() throws Exception {
+        AudioFormat format = AudioProfile.BALANCED.getFormat();
+        int frameSize = format.getFrameSize();
+        AudioInputStream synthOutput = new AudioInputStream(new ByteArrayInputStream(samples(1000, 100, 100)),
+            format, 1000);
+        CapturingLine line = new CapturingLine(format);
+        StemPlayer player = new StemPlayer(synthOutput, line, 2);
+        player.setGain(0, 1, 0.5f);
+        player.start(new ByteBuffer[] { ByteBuffer.wrap(samples(300, 1000, 1000)).order(ByteOrder.LITTLE_ENDIAN), null },
+            100);
+        player.open();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (line.getWritten().length < 1000 * frameSize && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        player.close();
+
+        ByteBuffer mixed = ByteBuffer.wrap(line.getWritten()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(1000 * frameSize, mixed.capacity());
+        for (int frame = 0; frame < 1000; frame++) {
+            boolean stemLeft = frame < 200; // the stem started 100 frames in and is 300 frames long
+            assertEquals(stemLeft ? 1100 : 100, mixed.getShort(frame * frameSize), "left of frame " + frame);
+            assertEquals(stemLeft ? 600 : 100, mixed.getShort(frame * frameSize + 2), "right of frame " + frame);
+        }
+    }
+
+    /*
+     * Helpers
+     */
+
+    /**
+     * Makes a stem's worth of samples that are all the same value, so they can be told apart
+     */
+    private static byte[] stem(int value) {
+        byte[] pcm = new byte[STEM_SIZE];
+        java.util.Arrays.fill(pcm, (byte) value);
+        return pcm;
+    }
+
+    /**
+     * Makes 16 bit little-endian stereo samples with the same value in every frame of each channel
+     */
+    private static byte[] samples(int frames, int left, int right) {
+        ByteBuffer pcm = ByteBuffer.allocate(frames * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            pcm.putShort((short) left);
+            pcm.putShort((short) right);
+        }
+        return pcm.array();
+    }
+
+    /**
+     * Finds the loudest left channel sample between two frames
+     */
+    private static int peak(ByteBuffer pcm, int from, int to, int frameSize) {
+        int peak = 0;
+        for (int i = from; i < to; i++) {
+            peak = Math.max(peak, Math.abs(pcm.getShort(i * frameSize)));
+        }
+        return peak;
+    }
+
+}
@@ -0,0 +1,230 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.ShortMessage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TransformTest {
+    private static final int ON = ShortMessage.NOTE_ON;
+    private static final int OFF = ShortMessage.NOTE_OFF;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void transposeMovesNotesAndDropsThoseOutOfRange() {
+        TransposeTransform up = new TransposeTransform(12);
+
+        assertEquals(MidiTransform.pack(5, ON, 72, 64), up.apply(MidiTransform.pack(5, ON, 60, 64)));
+        assertEquals(MidiTransform.pack(9, OFF, 72, 0), up.apply(MidiTransform.pack(9, OFF, 60, 0)));
+        assertEquals(MidiTransform.DROP, up.apply(MidiTransform.pack(5, ON, 120, 64)));
+        long program = MidiTransform.pack(0, ShortMessage.PROGRAM_CHANGE, 40, 0);
+        assertEquals(program, up.apply(program), "only notes are moved");
+    }
+
+    @Test
+    public void quantizeMovesTheStartToTheGridAndKeepsTheLength() {
+        MidiTransform quantize = new QuantizeTransform(10).forTrack(0);
+
+        assertEquals(MidiTransform.pack(10, ON, 60, 64), quantize.apply(MidiTransform.pack(7, ON, 60, 64)));
+        assertEquals(MidiTransform.pack(16, OFF, 60, 0), quantize.apply(MidiTransform.pack(13, OFF, 60, 0)));
+        assertEquals(MidiTransform.pack(20, ON, 61, 64), quantize.apply(MidiTransform.pack(24, ON, 61, 64)));
+        assertThrows(IllegalArgumentException.class, () -> new QuantizeTransform(0));
+    }
+
+    @Test
+    public void velocityCurveReshapesNoteOnsWithoutSilencingThem() {
+        VelocityCurveTransform soften = new VelocityCurveTransform(2, 1);
+
+        assertEquals(127, MidiTransform.data2Of(soften.apply(MidiTransform.pack(0, ON, 60, 127))));
+        assertEquals(32, MidiTransform.data2Of(soften.apply(MidiTransform.pack(0, ON, 60, 64))));
+        assertEquals(1, MidiTransform.data2Of(soften.apply(MidiTransform.pack(0, ON, 60, 1))));
+        long off = MidiTransform.pack(3, OFF, 60, 0);
+        assertEquals(off, soften.apply(off));
+    }
+
+    @Test
+    public void humanizeStaysInBoundsAndRepeatsForTheSameSeed() {
+        long[] events = new long[200];
+        for (int i = 0; i < events.length; i += 2) {
+            events[i] = MidiTransform.pack(100 + i, ON, 60, 64);
+            events[i + 1] = MidiTransform.pack(101 + i, OFF, 60, 0);
+        }
+        TransformChain chain = new TransformChain(new HumanizeTransform(3, 10, 7));
+
+        long[] first = chain.forTrack(1).applyAll(events, events.length);
+        long[] second = chain.forTrack(1).applyAll(events, events.length);
+        assertArrayEquals(first, second);
+        for (int i = 0; i < events.length; i += 2) {
+            long shift = MidiTransform.tickOf(first[i]) - MidiTransform.tickOf(events[i]);
+            assertTrue(Math.abs(shift) <= 3);
+            assertEquals(MidiTransform.tickOf(first[i]) + 1, MidiTransform.tickOf(first[i + 1]),
+                "the note keeps its length");
+            assertTrue(Math.abs(MidiTransform.data2Of(first[i]) - 64) <= 10);
+        }
+        assertFalse(java.util.Arrays.equals(first, chain.forTrack(2).applyAll(events, events.length)),
+            "each track gets its own random nudges");
+    }
+
+    @Test
+    public void chainStopsAtADroppedEvent() {
+        TransformChain chain = new TransformChain(new TransposeTransform(12), new VelocityCurveTransform(2, 1));
+        long[] events = { MidiTransform.pack(0, ON, 60, 127), MidiTransform.pack(0, ON, 125, 127) };
+
+        long[] shaped = chain.applyAll(events, events.length);
+        assertArrayEquals(new long[] { MidiTransform.pack(0, ON, 72, 127) }, shaped);
+        assertEquals(events[1], TransformChain.EMPTY.apply(events[1]));
+    }
+
+    @Test
+    public void liveTransformsShapeNotesOnEveryTrack() throws Exception {
+        CapturingSynthesizer synth = new CapturingSynthesizer();
+        MidiManager midiMan = new MidiManager(synth, MidiSystem.getSequencer(false), AudioProfile.BALANCED);
+        try {
+            midiMan.setLiveTransforms(new TransformChain(new TransposeTransform(12)));
+            midiMan.setActiveTrack(2); // picked after the transforms were set
+            synth.clear();
+            midiMan.playPitch(60, 0);
+            midiMan.stopPitch(60, 0);
+
+            assertEquals(2, synth.getCount());
+            assertEquals(72, synth.getData1(0));
+            assertEquals(72, synth.getData1(1));
+        } finally {
+            midiMan.close();
+        }
+    }
+
+    @Test
+    public void undoRebuildsTracksFromWhatWasPlayed() throws Exception {
+        MidiManager midiMan = newMidiManager();
+        try {
+            recordNotes(midiMan, 1, 60);
+            long played = midiMan.getSequenceHash();
+
+            midiMan.applyTransforms(new TransformChain(new TransposeTransform(12)));
+            assertEquals(List.of(72, 73, 74), pitches(midiMan, 1));
+            midiMan.applyTransforms(new TransformChain(new TransposeTransform(-12)));
+            assertEquals(List.of(48, 49, 50), pitches(midiMan, 1), "transforms start from what was played");
+
+            midiMan.undoTransforms();
+            assertEquals(List.of(60, 61, 62), pitches(midiMan, 1));
+            assertEquals(played, midiMan.getSequenceHash());
+        } finally {
+            midiMan.close();
+        }
+    }
+
+    @Test
+    public void undoAfterRecoveryRestoresWhatWasPlayed() throws Exception {
+        MidiManager plain = newMidiManager();
+        recordNotes(plain, 1, 60);
+        recordNotes(plain, 2, 125);
+        long played = plain.getSequenceHash();
+        plain.close();
+
+        File journalFile = dir.resolve("take.journal").toFile();
+        MidiManager midiMan = newMidiManager();
+        midiMan.openJournal(journalFile);
+        recordNotes(midiMan, 1, 60);
+        midiMan.applyTransforms(new TransformChain(new QuantizeTransform(20)));
+        midiMan.setLiveTransforms(new TransformChain(new TransposeTransform(1)));
+        recordNotes(midiMan, 2, 125); // the last note is dropped, since it would be above the MIDI range
+        long transformed = midiMan.getSequenceHash();
+        midiMan.close(); // leaves the journal unsaved, as if the app had been killed
+
+        MidiManager recovered = newMidiManager();
+        try {
+            assertTrue(recovered.openJournal(journalFile) > 0);
+            assertEquals(transformed, recovered.getSequenceHash());
+            assertEquals(List.of(126, 127), pitches(recovered, 2));
+            assertEquals(List.of(20L, 40L, 80L), starts(recovered, 1));
+
+            recovered.undoTransforms();
+            assertEquals(List.of(13L, 43L, 73L), starts(recovered, 1));
+            assertEquals(List.of(125, 126, 127), pitches(recovered, 2), "the dropped note comes back");
+            assertEquals(played, recovered.getSequenceHash());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    public void transformMenuIsHandledAndReplayed() throws Exception {
+        MidiManager midiMan = newMidiManager();
+        try {
+            KeyboardManager keyboard = new KeyboardManager(midiMan);
+            InputHandler input = new InputHandler(midiMan, keyboard, new KeyboardLink(keyboard.getKeys()));
+            recordNotes(midiMan, 0, 60);
+
+            input.transform(InputHandler.OCTAVE_UP, 0);
+            assertEquals(List.of(72, 73, 74), pitches(midiMan, 0));
+            input.replay(InputLog.TRANSFORM, InputHandler.UNDO_TRANSFORMS, 0);
+            assertEquals(List.of(60, 61, 62), pitches(midiMan, 0));
+            assertThrows(IllegalArgumentException.class, () -> input.transform(99, 0));
+        } finally {
+            midiMan.close();
+        }
+    }
+
+    /*
+     * Helpers
+     */
+
+    private static MidiManager newMidiManager() throws Exception {
+        return new MidiManager(new CapturingSynthesizer(), MidiSystem.getSequencer(false), AudioProfile.BALANCED);
+    }
+
+    /**
+     * Records three rising notes on a track, each starting as the last one stops and off the beat
+     */
+    private static void recordNotes(MidiManager midiMan, int track, int firstPitch) {
+        midiMan.setActiveTrack(track);
+        midiMan.startRecording();
+        for (int i = 0; i < 3; i++) {
+            midiMan.playPitch(firstPitch + i, 13 + i * 30);
+            midiMan.stopPitch(firstPitch + i, 27 + i * 30);
+        }
+        midiMan.stopRecording();
+    }
+
+    /**
+     * Lists the pitches of a track's notes in the order they start
+     */
+    private static List<Integer> pitches(MidiManager midiMan, int track) {
+        List<Integer> pitches = new ArrayList<>();
+        for (long[] note : notes(midiMan, track)) {
+            pitches.add((int) note[1]);
+        }
+        return pitches;
+    }
+
+    /**
+     * Lists the ticks a track's notes start at, in order
+     */
+    private static List<Long> starts(MidiManager midiMan, int track) {
+        List<Long> starts = new ArrayList<>();
+        for (long[] note : notes(midiMan, track)) {
+            starts.add(note[0]);
+        }
+        return starts;
+    }
+
+    /**
+     * Finds every note of a track as its start and pitch, sorted by start
+     */
+    private static List<long[]> notes(MidiManager midiMan, int track) {
+        List<long[]> notes = new ArrayList<>();
+        midiMan.getNoteIndex(track).query(0, 1000, (id, pitch, start, end) -> notes.add(new long[] { start, pitch }));
+        notes.sort((a, b) -> Long.compare(a[0], b[0]));
+        return notes;
+    }
+
+}